@@ -0,0 +1,391 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             BinaryDataSet.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary form of a DataSet. The file holds the labels and attributes followed by one bit-packed column of codes for the labels and one for each attribute, using just enough bits per code for the number of values. Reading it fills the DataSet columns directly, so repeated runs on the same data skip text parsing. The columns are read a window of rows at a time, so files of any size can be read.
+ *
+ * Layout, big-endian: magic, version, labels, attributes with their values, instance count, then the label column and the attribute columns in attribute order. Strings are an int byte length followed by UTF-8 bytes; a column is ceil(count * bits / 64) longs with code i in bits [i * bits, (i + 1) * bits).
+ */
+public class BinaryDataSet
+{
+   static final int MAGIC = 0x44544453; // "DTDS"
+   static final int VERSION = 1;
+   static final int WINDOW_ROWS = 1 << 20; // most rows of each column read at once
+   private static final int HEADER_READ = 1 << 16; // bytes first read for the header, grown until it fits
+
+   /**
+    * Convert a text data file into the binary format.
+    */
+   public static void main(String[] args)
+   {
+      if (args.length < 2)
+      {
+         System.out.println("usage: java BinaryDataSet <textFilename> <binaryFilename>");
+         System.exit(-1);
+      }
+
+      try
+      {
+         write(DataSetLoader.load(args[0]), args[1]);
+      }
+      catch (Exception e)
+      {
+         e.printStackTrace();
+         System.exit(-1);
+      }
+   }
+
+   /**
+    * Write a DataSet to a file in the binary format.
+    */
+   public static void write(DataSet set, String file) throws IOException
+   {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16)))
+      {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+
+         writeStrings(out, set.labels);
+         out.writeInt(set.attributes.size());
+         for (String attribute : set.attributes)
+         {
+            writeString(out, attribute);
+            writeStrings(out, set.attributeValues.get(attribute));
+         }
+
+         out.writeInt(set.size);
+         if (set.size == 0)
+         {
+            return;
+         }
+
+         int labelColumn = set.attributes.size();
+         writeColumn(out, set.store(), labelColumn, set.size, bitsFor(set.labels.size()));
+         for (int i = 0; i < labelColumn; i++)
+         {
+            writeColumn(out, set.store(), i, set.size, bitsFor(set.attributeValues.get(set.attributes.get(i)).size()));
+         }
+      }
+   }
+
+   /**
+    * Read a DataSet from a binary file.
+    *
+    * @param channel
+    * @param offHeap
+    *           whether to keep the columns outside the heap
+    */
+   static DataSet read(FileChannel channel, boolean offHeap) throws IOException
+   {
+      Reader reader = new Reader(channel);
+      DataSet set = reader.header;
+      set.storeOffHeap = offHeap;
+      if (reader.size == 0)
+      {
+         return set;
+      }
+
+      set.ensureCapacity(reader.size);
+      for (int row = 0; row < reader.size; row += WINDOW_ROWS)
+      {
+         reader.read(set, row, Math.min(WINDOW_ROWS, reader.size - row));
+      }
+      set.size = reader.size;
+
+      return set;
+   }
+
+   /**
+    * Reads the instances of a binary file in order, some rows at a time. Only the words of each column that cover the rows being read are held in memory.
+    */
+   static final class Reader
+   {
+      final DataSet header; // labels and attributes of the file, without instances
+      final int size; // number of instances in the file
+      private final FileChannel channel;
+      private final long[] columnStart; // file offset of each column, in DataSet column order
+      private final int[] bits; // bits per code of each column
+      private int next = 0; // first row not read yet
+
+      Reader(FileChannel channel) throws IOException
+      {
+         this.channel = channel;
+
+         // the header has no length of its own, so read more of the file until it parses
+         long fileSize = channel.size();
+         int limit = (int) Math.min(fileSize, HEADER_READ);
+         ByteBuffer buffer;
+         DataSet set;
+         int instances;
+
+         while (true)
+         {
+            buffer = ByteBuffer.allocate(limit);
+            readFully(channel, buffer, 0);
+            buffer.flip();
+            try
+            {
+               set = readHeader(buffer);
+               instances = buffer.getInt();
+               break;
+            }
+            catch (BufferUnderflowException e)
+            {
+               if (limit == fileSize || limit == Integer.MAX_VALUE)
+               {
+                  throw new IOException("Truncated binary data set");
+               }
+               limit = (int) Math.min(Math.min(fileSize, Integer.MAX_VALUE), limit * 4L);
+            }
+         }
+
+         header = set;
+         size = instances;
+         int attributes = set.attributes.size();
+         columnStart = new long[attributes + 1];
+         bits = new int[attributes + 1];
+
+         for (int i = 0; i < attributes; i++)
+         {
+            bits[i] = bitsFor(set.attributeValues.get(set.attributes.get(i)).size());
+         }
+         bits[attributes] = bitsFor(set.labels.size());
+
+         // the label column comes first in the file, then the attributes
+         long offset = buffer.position();
+         columnStart[attributes] = offset;
+         offset += columnBytes(size, bits[attributes]);
+         for (int i = 0; i < attributes; i++)
+         {
+            columnStart[i] = offset;
+            offset += columnBytes(size, bits[i]);
+         }
+
+         if (size > 0 && offset > fileSize)
+         {
+            throw new IOException("Truncated binary data set");
+         }
+      }
+
+      /**
+       * @return the number of instances not read yet
+       */
+      int remaining()
+      {
+         return size - next;
+      }
+
+      /**
+       * Read the next count instances into rows [toRow, toRow + count) of a DataSet with the labels and attributes of the file and room for them.
+       */
+      void read(DataSet set, int toRow, int count) throws IOException
+      {
+         if (count > remaining())
+         {
+            throw new IllegalArgumentException("Only " + remaining() + " instances left to read");
+         }
+
+         for (int column = 0; column < columnStart.length; column++)
+         {
+            long firstBit = (long) next * bits[column];
+            long firstWord = firstBit >>> 6;
+            long endWord = ((long) (next + count) * bits[column] + 63) >>> 6;
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) (endWord - firstWord) * 8);
+            readFully(channel, buffer, columnStart[column] + firstWord * 8);
+            if (buffer.hasRemaining())
+            {
+               throw new IOException("Truncated binary data set");
+            }
+            buffer.flip();
+
+            long[] words = new long[(int) (endWord - firstWord)];
+            buffer.asLongBuffer().get(words);
+            readColumn(words, (int) (firstBit & 63), set.store(), column, toRow, count, bits[column]);
+         }
+
+         next += count;
+      }
+   }
+
+   /**
+    * Read the magic number, version, labels and attributes.
+    *
+    * @return a DataSet with the labels and attributes and their schema, without instances
+    */
+   private static DataSet readHeader(ByteBuffer buffer) throws IOException
+   {
+      if (buffer.getInt() != MAGIC)
+      {
+         throw new IOException("Not a binary data set");
+      }
+      if (buffer.getInt() != VERSION)
+      {
+         throw new IOException("Unsupported binary data set version");
+      }
+
+      DataSet set = new DataSet();
+      set.labels = readStrings(buffer);
+      set.attributes = new ArrayList<String>();
+      set.attributeValues = new HashMap<String, List<String>>();
+
+      int attributes = buffer.getInt();
+      for (int i = 0; i < attributes; i++)
+      {
+         String attribute = readString(buffer);
+         set.attributes.add(attribute);
+         set.attributeValues.put(attribute, readStrings(buffer));
+      }
+      set.buildSchema();
+
+      return set;
+   }
+
+   /**
+    * Read from a position of a channel until buffer is full or the channel ends.
+    */
+   private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+   {
+      while (buffer.hasRemaining())
+      {
+         int read = channel.read(buffer, position + buffer.position());
+         if (read < 0)
+         {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Bytes taken by a column of count codes of the given bits.
+    */
+   private static long columnBytes(int count, int bits)
+   {
+      return ((long) count * bits + 63) / 64 * 8;
+   }
+
+   /**
+    * Check whether a file starts with the binary format magic number.
+    */
+   static boolean isBinary(FileChannel channel) throws IOException
+   {
+      ByteBuffer magic = ByteBuffer.allocate(4);
+      while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0)
+      {
+         // keep reading
+      }
+
+      return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+   }
+
+   /**
+    * Number of bits needed to store codes 0 to count - 1.
+    */
+   static int bitsFor(int count)
+   {
+      return Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+   }
+
+   private static void writeColumn(DataOutputStream out, ColumnStore store, int column, int size, int bits) throws IOException
+   {
+      long word = 0;
+      int used = 0; // bits of word already filled
+
+      for (int i = 0; i < size; i++)
+      {
+         long code = store.get(column, i);
+         word |= code << used;
+         used += bits;
+
+         if (used >= 64)
+         {
+            out.writeLong(word);
+            used -= 64;
+            word = used == 0 ? 0 : code >>> (bits - used);
+         }
+      }
+
+      if (used > 0)
+      {
+         out.writeLong(word);
+      }
+   }
+
+   /**
+    * Decode count codes from words, the first starting at bit offset of words[0], into rows [toRow, toRow + count) of a column.
+    */
+   private static void readColumn(long[] words, int offset, ColumnStore store, int column, int toRow, int count, int bits)
+   {
+      long mask = (1L << bits) - 1;
+      long bit = offset;
+
+      for (int i = 0; i < count; i++, bit += bits)
+      {
+         int index = (int) (bit >>> 6);
+         int shift = (int) (bit & 63);
+         long code = words[index] >>> shift;
+
+         if (shift + bits > 64)
+         {
+            code |= words[index + 1] << (64 - shift);
+         }
+
+         store.set(column, toRow + i, (int) (code & mask));
+      }
+   }
+
+   private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException
+   {
+      out.writeInt(strings.size());
+      for (String string : strings)
+      {
+         writeString(out, string);
+      }
+   }
+
+   private static void writeString(DataOutputStream out, String string) throws IOException
+   {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+   }
+
+   private static List<String> readStrings(ByteBuffer buffer)
+   {
+      int count = buffer.getInt();
+      List<String> strings = new ArrayList<String>(count);
+      for (int i = 0; i < count; i++)
+      {
+         strings.add(readString(buffer));
+      }
+
+      return strings;
+   }
+
+   private static String readString(ByteBuffer buffer)
+   {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
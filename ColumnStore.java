@@ -0,0 +1,56 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             ColumnStore.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+/**
+ * Storage behind the encoded columns of a DataSet. A store holds a fixed number of columns of 16 bit codes, one per attribute followed by the label column, each with room for capacity instances.
+ */
+abstract class ColumnStore
+{
+   /**
+    * @return the code at a row of a column
+    */
+   abstract int get(int column, int row);
+
+   abstract void set(int column, int row, int code);
+
+   /**
+    * @return the number of instances each column has room for
+    */
+   abstract int capacity();
+
+   /**
+    * Grow every column to hold capacity instances, keeping their codes.
+    */
+   abstract void grow(int capacity);
+
+   /**
+    * @return a view of the same codes that cannot be written
+    */
+   abstract ColumnStore readOnly();
+
+   /**
+    * Copy count codes of every column from rows [fromRow, fromRow + count) of another store with the same columns to rows starting at toRow of this one.
+    */
+   void copy(ColumnStore from, int fromRow, int toRow, int count)
+   {
+      for (int column = 0; column < columns(); column++)
+      {
+         for (int i = 0; i < count; i++)
+         {
+            set(column, toRow + i, from.get(column, fromRow + i));
+         }
+      }
+   }
+
+   /**
+    * @return the number of columns
+    */
+   abstract int columns();
+}
@@ -0,0 +1,411 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             CountTable.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Contingency table of a set of instances: for every attribute still available, how many instances take each value with each label, all in one flat int array. It is filled in a single pass over the instances, after which the information gain of every attribute comes from the table alone, for any number of labels.
+ *
+ * Given a ForkJoinPool, counting and scoring are split across tasks by attribute. Each attribute's block of the table and its gain are only written by one task, so the result is the same as the serial one.
+ */
+class CountTable
+{
+   private static final long PARALLEL_WORK = 1L << 15; // counts updated by a task before it is split further
+
+   final Schema schema;
+   final int labels; // number of labels
+   final int[] attributes; // indices of the counted attributes, ascending
+   final int[] offsets; // start of each attribute's [value][label] block in counts, -1 when not counted
+   final int[] valueCounts; // number of values of each attribute
+   final int[] counts; // [attribute][value][label]
+   final int[] labelCounts; // [label]
+   int size = 0; // number of instances counted
+
+   /**
+    * Empty table over the attributes that are not in used.
+    *
+    * @param schema
+    * @param used
+    *           bitmask of the attributes to leave out
+    */
+   CountTable(Schema schema, long[] used)
+   {
+      int attributeCount = schema.attributes.size();
+      int counted = 0;
+      int length = 0;
+
+      this.schema = schema;
+      labels = schema.labels.size();
+      offsets = new int[attributeCount];
+      valueCounts = new int[attributeCount];
+
+      for (int i = 0; i < attributeCount; i++)
+      {
+         valueCounts[i] = schema.valueCount(i);
+         if ((used[i >> 6] & (1L << i)) != 0)
+         {
+            offsets[i] = -1;
+         }
+         else
+         {
+            offsets[i] = length;
+            length += valueCounts[i] * labels;
+            counted++;
+         }
+      }
+
+      attributes = new int[counted];
+      for (int i = 0, j = 0; i < attributeCount; i++)
+      {
+         if (offsets[i] >= 0)
+         {
+            attributes[j++] = i;
+         }
+      }
+
+      counts = new int[length];
+      labelCounts = new int[labels];
+   }
+
+   /**
+    * Count rows[from, to) of a data set in one pass.
+    *
+    * @param pool
+    *           pool to count the attributes in parallel on, or null to count serially
+    */
+   static CountTable count(DataSet set, int[] rows, int from, int to, long[] used, ForkJoinPool pool)
+   {
+      CountTable table = new CountTable(set.schema, used);
+
+      if (pool == null || (long) (to - from) * table.attributes.length < 2 * PARALLEL_WORK)
+      {
+         for (int j = from; j < to; j++)
+         {
+            table.add(set, rows[j]);
+         }
+
+         return table;
+      }
+
+      for (int j = from; j < to; j++)
+      {
+         table.labelCounts[set.label(rows[j])]++;
+      }
+      table.size = to - from;
+
+      // one column at a time, each task owning the blocks of its attributes
+      pool.invoke(new Slots(0, table.attributes.length, to - from, slot ->
+      {
+         int a = table.attributes[slot];
+         int offset = table.offsets[a];
+         for (int j = from; j < to; j++)
+         {
+            table.counts[offset + set.value(rows[j], a) * table.labels + set.label(rows[j])]++;
+         }
+      }));
+
+      return table;
+   }
+
+   /**
+    * Count the instance at a row of a data set.
+    */
+   void add(DataSet set, int row)
+   {
+      int label = set.label(row);
+      labelCounts[label]++;
+      size++;
+
+      for (int a : attributes)
+      {
+         counts[offsets[a] + set.value(row, a) * labels + label]++;
+      }
+   }
+
+   /**
+    * Count an instance.
+    */
+   void add(Instance instance)
+   {
+      int label = instance.label;
+      labelCounts[label]++;
+      size++;
+
+      for (int a : attributes)
+      {
+         counts[offsets[a] + instance.attributes[a] * labels + label]++;
+      }
+   }
+
+   /**
+    * Counts of the instances of this table that are in none of the given tables, over the attributes not in used. Each given table must count every one of those attributes and hold a subset of the instances of this table.
+    *
+    * @param parts
+    *           tables to take away, null entries are skipped
+    * @param used
+    * @return
+    */
+   CountTable minus(CountTable[] parts, long[] used)
+   {
+      CountTable rest = new CountTable(schema, used);
+      rest.size = size;
+      System.arraycopy(labelCounts, 0, rest.labelCounts, 0, labels);
+      for (int a : rest.attributes)
+      {
+         System.arraycopy(counts, offsets[a], rest.counts, rest.offsets[a], valueCounts[a] * labels);
+      }
+
+      for (CountTable part : parts)
+      {
+         if (part == null)
+         {
+            continue;
+         }
+
+         rest.size -= part.size;
+         for (int k = 0; k < labels; k++)
+         {
+            rest.labelCounts[k] -= part.labelCounts[k];
+         }
+         for (int a : rest.attributes)
+         {
+            int to = rest.offsets[a], from = part.offsets[a];
+            for (int j = 0; j < valueCounts[a] * labels; j++)
+            {
+               rest.counts[to + j] -= part.counts[from + j];
+            }
+         }
+      }
+
+      return rest;
+   }
+
+   /**
+    * @return the number of counted instances taking a value of an attribute with a label
+    */
+   int count(int attribute, int value, int label)
+   {
+      return counts[offsets[attribute] + value * labels + label];
+   }
+
+   /**
+    * @return whether the attribute is counted in this table
+    */
+   boolean counts(int attribute)
+   {
+      return offsets[attribute] >= 0;
+   }
+
+   /**
+    * @return the label code with the most instances, the first one on ties
+    */
+   int plurality()
+   {
+      int max = 0;
+      for (int i = 1; i < labels; i++)
+      {
+         if (labelCounts[i] > labelCounts[max])
+         {
+            max = i;
+         }
+      }
+
+      return max;
+   }
+
+   /**
+    * @return whether every counted instance has the same label
+    */
+   boolean sameClassification()
+   {
+      return labelCounts[plurality()] == size;
+   }
+
+   /**
+    * Calculate the entropy of the class label.
+    */
+   double classEntropy()
+   {
+      double entropy = 0;
+      for (int i = 0; i < labels; i++)
+      {
+         double p = (double) labelCounts[i] / size;
+         if (p > 0)
+         {
+            entropy -= p * Math.log(p);
+         }
+      }
+
+      return entropy / Math.log(2);
+   }
+
+   /**
+    * Information gain of splitting the counted instances on an attribute.
+    *
+    * @param attribute
+    * @param classEntropy
+    *           entropy of the class label before the split
+    * @return
+    */
+   double infoGain(int attribute, double classEntropy)
+   {
+      double totalInfoGain = classEntropy;
+      int offset = offsets[attribute];
+
+      for (int j = 0; j < valueCounts[attribute]; j++, offset += labels) // for each attribute value
+      {
+         double sum = 0;
+         for (int k = 0; k < labels; k++)
+         {
+            sum += counts[offset + k];
+         }
+
+         for (int k = 0; k < labels; k++)
+         {
+            double p = counts[offset + k] / sum;
+            if (p > 0)
+            {
+               totalInfoGain += sum / size * (p * Math.log(p)) / Math.log(2);
+            }
+         }
+      }
+
+      return totalInfoGain;
+   }
+
+   /**
+    * Score of every counted attribute under a criterion.
+    *
+    * @param criterion
+    * @param pool
+    *           pool to score the attributes in parallel on, or null to score serially
+    * @return the score of attributes[i] at index i
+    */
+   double[] scores(SplitCriterion criterion, ForkJoinPool pool)
+   {
+      double impurity = criterion.impurity(this);
+      double[] scores = new double[attributes.length];
+      IntConsumer score = slot -> scores[slot] = criterion.score(this, attributes[slot], impurity);
+
+      if (pool == null || (long) counts.length < 2 * PARALLEL_WORK)
+      {
+         for (int slot = 0; slot < attributes.length; slot++)
+         {
+            score.accept(slot);
+         }
+      }
+      else
+      {
+         pool.invoke(new Slots(0, attributes.length, counts.length / Math.max(1, attributes.length), score));
+      }
+
+      return scores;
+   }
+
+   /**
+    * Select the counted attribute with the highest information gain, the first one on ties.
+    *
+    * @return the index of the best attribute, or -1 if no attribute is counted
+    */
+   int bestAttribute()
+   {
+      return bestAttribute(SplitCriterion.ENTROPY, null, StoppingRules.NONE);
+   }
+
+   /**
+    * Select the counted attribute with the highest score, the first one on ties, among those whose split gives every child that gets any instances at least rules.minLeaf of them.
+    *
+    * @param criterion
+    * @param pool
+    * @param rules
+    * @return the index of the best attribute, or -1 if no attribute qualifies or the best score is below rules.minGain
+    */
+   int bestAttribute(SplitCriterion criterion, ForkJoinPool pool, StoppingRules rules)
+   {
+      double[] scores = scores(criterion, pool);
+      double maxScore = -1000000000;
+      int bestAttr = -1;
+
+      // scanned in attribute order after every task is done, so ties go to the lowest index as in the serial search
+      for (int slot = 0; slot < scores.length; slot++)
+      {
+         if (scores[slot] > maxScore && (rules.minLeaf <= 1 || smallestChild(attributes[slot]) >= rules.minLeaf))
+         {
+            maxScore = scores[slot];
+            bestAttr = attributes[slot];
+         }
+      }
+
+      return maxScore >= rules.minGain ? bestAttr : -1;
+   }
+
+   /**
+    * @return the fewest instances taking any one value of the attribute, leaving out values no instance takes
+    */
+   int smallestChild(int attribute)
+   {
+      int smallest = Integer.MAX_VALUE;
+      int offset = offsets[attribute];
+
+      for (int j = 0; j < valueCounts[attribute]; j++, offset += labels)
+      {
+         int sum = 0;
+         for (int k = 0; k < labels; k++)
+         {
+            sum += counts[offset + k];
+         }
+
+         if (sum > 0 && sum < smallest)
+         {
+            smallest = sum;
+         }
+      }
+
+      return smallest;
+   }
+
+   /**
+    * Runs a body for each slot in [lo, hi), halving the range into forked tasks while it holds more than PARALLEL_WORK.
+    */
+   private static final class Slots extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final int lo, hi;
+      private final long work; // work per slot
+      private final IntConsumer body;
+
+      Slots(int lo, int hi, long work, IntConsumer body)
+      {
+         this.lo = lo;
+         this.hi = hi;
+         this.work = work;
+         this.body = body;
+      }
+
+      @Override
+      protected void compute()
+      {
+         if (hi - lo > 1 && (hi - lo) * work > PARALLEL_WORK)
+         {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Slots(lo, mid, work, body), new Slots(mid, hi, work, body));
+            return;
+         }
+
+         for (int slot = lo; slot < hi; slot++)
+         {
+            body.accept(slot);
+         }
+      }
+   }
+}
@@ -8,22 +8,29 @@
 //
 //////////////////////////////////////////////////////////////////////////////
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 /**
- * This class organizes the information of a data set into simple structures. To speed up program performance, the label value of an instance is stored as an Integer that reflect the position of the label in the DataSet labels list. Similarly, the attribute values of an instance are stored as Integers that reflect the position of that value in the list attributes[<attribute>]. See the Instance class for more details. All ordering of attribute values in an instance follow the ordering of the
- * DataSet attributes list.
+ * This class organizes the information of a data set into simple structures. To speed up program performance, the label value of an instance is stored as a code that reflects the position of the label in the DataSet labels list. Similarly, the attribute values of an instance are stored as codes that reflect the position of that value in the list attributeValues[<attribute>]. The codes are kept column by column in a ColumnStore, on the heap or off it: value(i, a) is the value code of attribute a for instance i
+ * and label(i) is its label code. See the Instance class for the row view handed out by instances. All ordering of attribute values in an instance follow the ordering of the DataSet attributes list.
  */
 public class DataSet
 {
    public List<String> labels = null; // ordered list of class labels
    public List<String> attributes = null; // ordered list of attributes
    public Map<String, List<String>> attributeValues = null; // map to ordered discrete values taken by attributes
-   public List<Instance> instances = null; // ordered list of instances
+   public List<Instance> instances = null; // ordered list of instances, decoded from the columns on access
+   public int size = 0; // number of instances stored in the columns
+   public Schema schema = null; // shared labels and attributes, built once the instances start
    private final String DELIMITER = ","; // Used to split input strings
+   private static final int INITIAL_CAPACITY = 256;
+   boolean storeOffHeap = false; // keep the columns outside the heap, set before the first instance and kept by copies
+   private ColumnStore store = null; // one column per attribute, then the label column
 
    /**
     * Adds the labels used by the instances.
@@ -93,11 +100,6 @@ public class DataSet
     */
    public void addInstance(String line)
    {
-      if (instances == null)
-      {
-         instances = new ArrayList<Instance>();
-      }
-
       String[] splitline = line.split(DELIMITER);
       if (splitline.length < 1 + attributes.size())
       {
@@ -105,92 +107,233 @@ public class DataSet
          return;
       }
 
-      Instance instance = new Instance();
-      instance.label = splitline[attributes.size()];
+      buildSchema();
+
+      int label = schema.labelCode(splitline[attributes.size()]);
+      if (label < 0)
+      {
+         System.err.println("Missing label : check input files");
+         return;
+      }
+
+      int row = newInstance();
 
-      // add the values, will be input in same order as attributes
-      for (int i = 0; i < splitline.length - 1; i++)
+      // encode the values, will be input in same order as attributes
+      for (int i = 0; i < attributes.size(); i++)
       {
-         List<String> values = attributeValues.get(attributes.get(i));
          // find the index of the value
-         for (int j = 0; j < values.size(); j++)
+         int code = schema.valueCode(i, splitline[i]);
+         if (code < 0)
          {
-            if (splitline[i].equals(values.get(j)))
-            {
-               instance.addAttribute(values.get(j));
-               break;
-            }
-            if (j == values.size() - 1)
-            {
-               System.err.println("Missing attribute : check input files");
-            }
+            System.err.println("Missing attribute : check input files");
+            size--; // drop the partially encoded instance
+            return;
          }
+         setValue(row, i, code);
       }
-      instances.add(instance);
+      setLabel(row, label);
    }
 
    /**
-    * Verifies that two DataSets use the same values for labels and attributes as wells as the same ordering. Returns false otherwise.
+    * Add an encoded instance to the collection.
+    * 
+    * @param instance
+    *           codes of the label and attribute values of this DataSet
+    * @return the row of the instance
     */
-   public boolean sameMetaValues(DataSet other)
+   public int addInstance(Instance instance)
    {
-      // compare labels
-      if (other.labels == null || this.labels == null)
+      buildSchema();
+
+      int row = newInstance();
+      for (int i = 0; i < attributes.size(); i++)
       {
-         if (!(this.labels == null && other.labels == null))
-         {
-            return false;
-         }
-         else if (other.labels.size() != this.labels.size())
-         {
-            return false;
-         }
-         else
-         {
-            for (int i = 0; i < other.labels.size(); i++)
-            {
-               if (!other.labels.get(i).equals(this.labels.get(i)))
-               {
-                  return false;
-               }
-            }
-         }
+         setValue(row, i, instance.attributes[i]);
       }
+      setLabel(row, instance.label);
+
+      return row;
+   }
 
-      // compare attributes (and values)
-      if (other.attributes == null || this.attributes == null)
+   /**
+    * Freeze the labels and attributes read so far into the shared schema. The labels, attributes and attributeValues fields are replaced by the read-only views of the schema.
+    * 
+    * @return the schema of this DataSet
+    */
+   Schema buildSchema()
+   {
+      if (schema == null)
       {
+         schema = Schema.of(labels, attributes, attributeValues);
+         labels = schema.labels;
+         attributes = schema.attributes;
+         attributeValues = schema.attributeValues;
+      }
 
-         if (!(this.attributes == null && this.attributes == null))
-         {
-            return false;
-         }
-         else if (other.attributes.size() != this.attributes.size() || other.attributes.size() != other.attributeValues.size() || other.attributeValues.size() != this.attributeValues.size())
-         {
-            return false;
-         }
-         else
+      return schema;
+   }
+
+   /**
+    * @return the value code of an attribute for the instance at row
+    */
+   public int value(int row, int attribute)
+   {
+      return store.get(attribute, row);
+   }
+
+   /**
+    * @return the label code of the instance at row
+    */
+   public int label(int row)
+   {
+      return store.get(attributes.size(), row);
+   }
+
+   /**
+    * @return the columns of this DataSet, one per attribute followed by the label column
+    */
+   ColumnStore store()
+   {
+      return store;
+   }
+
+   void setValue(int row, int attribute, int code)
+   {
+      store.set(attribute, row, code);
+   }
+
+   void setLabel(int row, int label)
+   {
+      store.set(attributes.size(), row, label);
+   }
+
+   /**
+    * Reserve room for one more instance at the end of the columns.
+    * 
+    * @return the row of the new instance
+    */
+   int newInstance()
+   {
+      if (store == null || size == store.capacity())
+      {
+         ensureCapacity((int) Math.max(INITIAL_CAPACITY, Math.min(Integer.MAX_VALUE, size * 2L)));
+      }
+
+      return size++;
+   }
+
+   /**
+    * Grow the columns to hold at least capacity instances.
+    */
+   void ensureCapacity(int capacity)
+   {
+      if (store == null)
+      {
+         store = storeOffHeap ? new OffHeapColumnStore(attributes.size() + 1, capacity) : new HeapColumnStore(attributes.size() + 1, capacity);
+         instances = new InstanceList();
+      }
+      else if (capacity > store.capacity())
+      {
+         store.grow(capacity);
+      }
+   }
+
+   /**
+    * New empty DataSet sharing the labels and attributes of this one.
+    */
+   DataSet emptyCopy()
+   {
+      DataSet copy = new DataSet();
+      copy.labels = labels;
+      copy.attributes = attributes;
+      copy.attributeValues = attributeValues;
+      copy.schema = schema;
+      copy.storeOffHeap = storeOffHeap;
+
+      return copy;
+   }
+
+   /**
+    * View of the same instances that cannot be modified, for handing to a DecisionTree.
+    */
+   DataSet readOnly()
+   {
+      DataSet view = emptyCopy();
+      if (store != null)
+      {
+         view.store = store.readOnly();
+         view.size = size;
+         view.instances = view.new InstanceList();
+      }
+
+      return view;
+   }
+
+   /**
+    * Append the instances of another DataSet with the same labels and attributes, keeping their order.
+    */
+   void append(DataSet other)
+   {
+      if (other.size == 0)
+      {
+         return;
+      }
+
+      ensureCapacity(size + other.size);
+      store.copy(other.store, 0, size, other.size);
+      size += other.size;
+   }
+
+   /**
+    * Decode the instance stored at a row of the columns.
+    */
+   public Instance getInstance(int row)
+   {
+      int[] values = new int[attributes.size()];
+      for (int i = 0; i < values.length; i++)
+      {
+         values[i] = store.get(i, row);
+      }
+
+      return new Instance(label(row), values);
+   }
+
+   /**
+    * Read-only list view of the encoded instances.
+    */
+   private class InstanceList extends AbstractList<Instance> implements RandomAccess
+   {
+      @Override
+      public Instance get(int index)
+      {
+         if (index < 0 || index >= size)
          {
-            for (int i = 0; i < other.attributes.size(); i++)
-            {
-               if (!other.attributes.get(i).equals(this.attributes.get(i)))
-               {
-                  return false;
-               }
-
-               List<String> otherValues = other.attributeValues.get(other.attributes.get(i));
-               List<String> thisValues = this.attributeValues.get(other.attributes.get(i));
-               for (int j = 0; j < otherValues.size(); j++)
-               {
-
-                  if (!otherValues.get(j).equals(thisValues.get(j)))
-                  {
-                     return false;
-                  }
-               }
-            }
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
          }
+
+         return getInstance(index);
+      }
+
+      @Override
+      public int size()
+      {
+         return size;
       }
-      return true;
+   }
+
+   /**
+    * Verifies that two DataSets use the same values for labels and attributes as wells as the same ordering. Returns false otherwise.
+    */
+   public boolean sameMetaValues(DataSet other)
+   {
+      boolean thisDefined = labels != null && attributes != null;
+      boolean otherDefined = other.labels != null && other.attributes != null;
+
+      if (!thisDefined || !otherDefined)
+      {
+         return thisDefined == otherDefined;
+      }
+
+      return buildSchema().isCompatible(other.buildSchema());
    }
 }
@@ -0,0 +1,548 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             DataSetLoader.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Reads the text data file format into a DataSet. The file is memory mapped and instance lines are tokenized byte by byte, with each field matched against the encoded attribute values and written straight into the DataSet columns. Only the "%%" and "##" header lines are turned into Strings.
+ * 
+ * The instance lines after the header are independent of each other, so that region is cut into newline-aligned chunks that are parsed on all cores into partial DataSets, then appended in file order. For files too large to keep, stream hands the instances to a consumer in small batches instead.
+ */
+public class DataSetLoader
+{
+   private static final long WINDOW = 1L << 30; // most bytes mapped at once
+   private static final long MIN_CHUNK = 1L << 20; // smaller instance regions are parsed serially
+   private static final int THREADS = Runtime.getRuntime().availableProcessors();
+   private static final int BATCH = 4096; // instances handed to a stream consumer at a time
+   private static final byte COMMA = ',';
+   private static final byte NEWLINE = '\n';
+   private static final byte RETURN = '\r';
+
+   private final DataSet set;
+   private Schema schema = null; // set once the header has been read
+   private boolean headerOnly = false; // stop at the first instance line
+   private long stoppedAt = -1; // offset of the first instance line when headerOnly
+   private Consumer<DataSet> sink = null; // receives full batches when streaming
+   private boolean countOnly = false; // only count the instance lines
+   private int count = 0; // instance lines counted when countOnly
+   private int nextRow = -1; // when not negative, the row of set the next instance is written to, instead of a new one
+
+   private DataSetLoader(DataSet set)
+   {
+      this.set = set;
+   }
+
+   /**
+    * Load the data file into a new DataSet. Files written by BinaryDataSet are recognized by their magic number and read directly.
+    *
+    * @param file
+    * @return
+    * @throws IOException
+    */
+   public static DataSet load(String file) throws IOException
+   {
+      return load(file, false);
+   }
+
+   /**
+    * Load the data file into a new DataSet, keeping its columns outside the heap if asked to.
+    *
+    * @param file
+    * @param offHeap
+    * @return
+    * @throws IOException
+    */
+   static DataSet load(String file, boolean offHeap) throws IOException
+   {
+      DataSetLoader header = new DataSetLoader(new DataSet());
+      header.set.storeOffHeap = offHeap;
+
+      try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+      {
+         if (BinaryDataSet.isBinary(channel))
+         {
+            return BinaryDataSet.read(channel, offHeap);
+         }
+
+         long size = channel.size();
+
+         // read the comments, labels and attributes up to the first instance line
+         header.headerOnly = true;
+         header.parse(channel, 0, size);
+         header.headerOnly = false;
+
+         long dataStart = header.stoppedAt;
+         if (dataStart < 0)
+         {
+            return header.set; // no instances
+         }
+
+         header.schema = header.set.buildSchema();
+         long[] bounds = chunkBounds(channel, dataStart, size);
+
+         if (bounds.length == 2)
+         {
+            header.parse(channel, dataStart, size);
+            return header.set;
+         }
+
+         ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, bounds.length - 1));
+         try
+         {
+            // count the instance lines of every chunk first, so the columns are allocated once and each chunk is parsed straight into its own rows
+            List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < bounds.length - 1; i++)
+            {
+               long from = bounds[i];
+               long to = bounds[i + 1];
+               counts.add(pool.submit(() -> countChunk(channel, from, to)));
+            }
+
+            int[] firstRow = new int[bounds.length];
+            for (int i = 0; i < bounds.length - 1; i++)
+            {
+               firstRow[i + 1] = Math.addExact(firstRow[i], counts.get(i).get());
+            }
+            if (firstRow[bounds.length - 1] == 0)
+            {
+               return header.set;
+            }
+            header.set.ensureCapacity(firstRow[bounds.length - 1]);
+
+            List<Future<Integer>> parts = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < bounds.length - 1; i++)
+            {
+               long from = bounds[i];
+               long to = bounds[i + 1];
+               int row = firstRow[i];
+               parts.add(pool.submit(() -> header.parseChunk(channel, from, to, row)));
+            }
+
+            // close the gaps left by instance lines that failed to parse
+            ColumnStore store = header.set.store();
+            int rows = 0;
+            for (int i = 0; i < bounds.length - 1; i++)
+            {
+               int parsed = parts.get(i).get();
+               if (firstRow[i] > rows)
+               {
+                  store.copy(store, firstRow[i], rows, parsed);
+               }
+               rows += parsed;
+            }
+            header.set.size = rows;
+         }
+         catch (InterruptedException | ExecutionException e)
+         {
+            throw new IOException("Failed to parse " + file, e);
+         }
+         finally
+         {
+            pool.shutdown();
+         }
+      }
+
+      return header.set;
+   }
+
+   /**
+    * Read the data file in order, handing its instances to sink in batches of at most BATCH instances so that only one batch is held at a time. The batch DataSet is reused after sink returns, so sink must not keep it.
+    *
+    * @param file
+    * @param sink
+    * @return the labels and attributes of the file, without instances
+    * @throws IOException
+    */
+   public static DataSet stream(String file, Consumer<DataSet> sink) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+      {
+         if (BinaryDataSet.isBinary(channel))
+         {
+            BinaryDataSet.Reader reader = new BinaryDataSet.Reader(channel);
+            DataSet set = reader.header.emptyCopy();
+            set.ensureCapacity(Math.min(BATCH, reader.size));
+
+            while (reader.remaining() > 0)
+            {
+               set.size = Math.min(BATCH, reader.remaining());
+               reader.read(set, 0, set.size);
+               sink.accept(set);
+            }
+
+            return reader.header;
+         }
+
+         DataSetLoader loader = new DataSetLoader(new DataSet());
+         long size = channel.size();
+
+         loader.headerOnly = true;
+         loader.parse(channel, 0, size);
+         loader.headerOnly = false;
+
+         if (loader.stoppedAt >= 0)
+         {
+            loader.schema = loader.set.buildSchema();
+            loader.sink = sink;
+            loader.parse(channel, loader.stoppedAt, size);
+            loader.flush();
+         }
+
+         return loader.set.emptyCopy();
+      }
+   }
+
+   /**
+    * Read only the labels and attributes of a data file.
+    *
+    * @param file
+    * @return a DataSet without instances
+    * @throws IOException
+    */
+   public static DataSet header(String file) throws IOException
+   {
+      try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ))
+      {
+         if (BinaryDataSet.isBinary(channel))
+         {
+            return new BinaryDataSet.Reader(channel).header;
+         }
+
+         DataSetLoader loader = new DataSetLoader(new DataSet());
+         loader.headerOnly = true;
+         loader.parse(channel, 0, channel.size());
+         loader.set.buildSchema();
+
+         return loader.set;
+      }
+   }
+
+   /**
+    * Hand the instances read so far to the sink and start a new batch.
+    */
+   private void flush()
+   {
+      if (set.size > 0)
+      {
+         sink.accept(set);
+         set.size = 0;
+      }
+   }
+
+   /**
+    * @return the number of instance lines in [from, to)
+    */
+   private static int countChunk(FileChannel channel, long from, long to) throws IOException
+   {
+      DataSetLoader chunk = new DataSetLoader(null);
+      chunk.countOnly = true;
+      chunk.parse(channel, from, to);
+
+      return chunk.count;
+   }
+
+   /**
+    * Parse the instance lines in [from, to) into the rows of this loader's DataSet starting at firstRow, which must have room for all of them. Chunks parsed at the same time write disjoint rows.
+    *
+    * @return the number of instances parsed, fewer than the instance lines when some are malformed
+    */
+   private int parseChunk(FileChannel channel, long from, long to, int firstRow) throws IOException
+   {
+      DataSetLoader chunk = new DataSetLoader(set);
+      chunk.schema = schema;
+      chunk.nextRow = firstRow;
+      chunk.parse(channel, from, to);
+
+      return chunk.nextRow - firstRow;
+   }
+
+   /**
+    * Split [from, to) into chunks that start at the beginning of a line.
+    *
+    * @return the chunk boundaries, from first and to last
+    */
+   private static long[] chunkBounds(FileChannel channel, long from, long to) throws IOException
+   {
+      int chunks = (int) Math.max(1, Math.min(THREADS * 4L, (to - from) / MIN_CHUNK));
+      long target = (to - from) / chunks;
+      List<Long> bounds = new ArrayList<Long>();
+      bounds.add(from);
+
+      for (int i = 1; i < chunks; i++)
+      {
+         long bound = nextLineStart(channel, Math.max(from + i * target, bounds.get(bounds.size() - 1)), to);
+         if (bound < to && bound > bounds.get(bounds.size() - 1))
+         {
+            bounds.add(bound);
+         }
+      }
+      bounds.add(to);
+
+      long[] result = new long[bounds.size()];
+      for (int i = 0; i < result.length; i++)
+      {
+         result[i] = bounds.get(i);
+      }
+
+      return result;
+   }
+
+   /**
+    * Offset of the first line that starts after position, or limit if there is none.
+    */
+   private static long nextLineStart(FileChannel channel, long position, long limit) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+      while (position < limit)
+      {
+         buffer.clear();
+         int read = channel.read(buffer, position);
+         if (read <= 0)
+         {
+            break;
+         }
+
+         for (int i = 0; i < read; i++)
+         {
+            if (buffer.get(i) == NEWLINE)
+            {
+               return Math.min(position + i + 1, limit);
+            }
+         }
+         position += read;
+      }
+
+      return limit;
+   }
+
+   /**
+    * Map [from, to) window by window and parse its lines.
+    */
+   private void parse(FileChannel channel, long from, long to) throws IOException
+   {
+      long position = from;
+
+      while (position < to)
+      {
+         long length = Math.min(WINDOW, to - position);
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+         int end = (int) length;
+
+         if (position + length < to) // stop the window after its last complete line
+         {
+            while (end > 0 && buffer.get(end - 1) != NEWLINE)
+            {
+               end--;
+            }
+            if (end == 0)
+            {
+               throw new IOException("Line longer than " + WINDOW + " bytes");
+            }
+         }
+
+         int stop = parse(buffer, 0, end);
+         if (stop < end)
+         {
+            stoppedAt = position + stop;
+            return;
+         }
+         position += end;
+      }
+   }
+
+   /**
+    * Parse every line in buffer[start, end).
+    * 
+    * @return end, or the start of the first instance line when headerOnly
+    */
+   private int parse(MappedByteBuffer buffer, int start, int end)
+   {
+      int lineStart = start;
+
+      while (lineStart < end)
+      {
+         int lineEnd = lineStart;
+         while (lineEnd < end && buffer.get(lineEnd) != NEWLINE)
+         {
+            lineEnd++;
+         }
+
+         int next = lineEnd + 1;
+         if (lineEnd > lineStart && buffer.get(lineEnd - 1) == RETURN)
+         {
+            lineEnd--;
+         }
+
+         if (headerOnly && isInstance(buffer, lineStart, lineEnd))
+         {
+            return lineStart;
+         }
+
+         if (countOnly)
+         {
+            if (isInstance(buffer, lineStart, lineEnd))
+            {
+               count++;
+            }
+         }
+         else
+         {
+            parseLine(buffer, lineStart, lineEnd);
+         }
+         lineStart = next;
+      }
+
+      return end;
+   }
+
+   private static boolean isInstance(MappedByteBuffer buffer, int start, int end)
+   {
+      if (end - start < 2)
+      {
+         return false;
+      }
+
+      byte first = buffer.get(start);
+      byte second = buffer.get(start + 1);
+
+      return !((first == '/' && second == '/') || (first == '%' && second == '%') || (first == '#' && second == '#'));
+   }
+
+   /**
+    * Dispatch a line on its prefix, as described in DecisionTreeBuilder.createDataSet.
+    */
+   private void parseLine(MappedByteBuffer buffer, int start, int end)
+   {
+      if (end - start < 2)
+      {
+         return; // blank line
+      }
+
+      byte first = buffer.get(start);
+      byte second = buffer.get(start + 1);
+
+      if (first == '/' && second == '/')
+      {
+         // do nothing
+      }
+      else if (schema != null && ((first == '%' && second == '%') || (first == '#' && second == '#')))
+      {
+         System.err.println("Header line after instances : check input files");
+      }
+      else if (first == '%' && second == '%')
+      {
+         set.addLabels(decode(buffer, start, end));
+      }
+      else if (first == '#' && second == '#')
+      {
+         set.addAttribute(decode(buffer, start, end));
+      }
+      else
+      {
+         addInstance(buffer, start, end);
+      }
+   }
+
+   /**
+    * Encode the instance in buffer[start, end) into a new row of the DataSet.
+    */
+   private void addInstance(MappedByteBuffer buffer, int start, int end)
+   {
+      int attributes = schema.attributes.size();
+      int row = nextRow >= 0 ? nextRow++ : set.newInstance();
+      int fieldStart = start;
+
+      for (int i = 0; i <= attributes; i++)
+      {
+         if (fieldStart > end)
+         {
+            System.err.println("Instance doesn't contain enough attributes");
+            drop(); // the partially encoded instance
+            return;
+         }
+
+         int fieldEnd = fieldStart;
+         while (fieldEnd < end && buffer.get(fieldEnd) != COMMA)
+         {
+            fieldEnd++;
+         }
+
+         if (i == attributes)
+         {
+            int label = schema.labelCode(buffer, fieldStart, fieldEnd);
+            if (label < 0)
+            {
+               System.err.println("Missing label : check input files");
+               drop();
+               return;
+            }
+            set.setLabel(row, label);
+         }
+         else
+         {
+            int code = schema.valueCode(i, buffer, fieldStart, fieldEnd);
+            if (code < 0)
+            {
+               System.err.println("Missing attribute : check input files");
+               drop();
+               return;
+            }
+            set.setValue(row, i, code);
+         }
+
+         fieldStart = fieldEnd + 1;
+      }
+
+      if (sink != null && set.size == BATCH)
+      {
+         flush();
+      }
+   }
+
+   /**
+    * Give back the row of an instance that failed to encode.
+    */
+   private void drop()
+   {
+      if (nextRow >= 0)
+      {
+         nextRow--;
+      }
+      else
+      {
+         set.size--;
+      }
+   }
+
+   private static String decode(MappedByteBuffer buffer, int start, int end)
+   {
+      byte[] bytes = new byte[end - start];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         bytes[i] = buffer.get(start + i);
+      }
+
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
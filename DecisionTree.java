@@ -9,12 +9,21 @@
 //////////////////////////////////////////////////////////////////////////////
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 
 public class DecisionTree
 {
@@ -25,6 +34,23 @@ public class DecisionTree
    private List<String> attributes;
    // map to ordered discrete values taken by attributes
    private Map<String, List<String>> attributeValues;
+   // limits on how far trees are grown
+   private StoppingRules rules = StoppingRules.NONE;
+   // split criterion, pool and pruning this tree is built with
+   private TreeSettings settings = TreeSettings.DEFAULT;
+   // pool this tree is built on, null to build serially
+   private ForkJoinPool workers = settings.pool;
+   // limits on training time and tree size, and when time runs out
+   private TrainingBudget budget = TrainingBudget.UNLIMITED;
+   private long deadline;
+   // when positive, each split is chosen among this many randomly sampled attributes
+   private int sampleSize = 0;
+   private SplittableRandom random = null;
+   // instances the tree was grown from, null when it can't be updated
+   private DataSet grownFrom = null;
+   // instances and per-node counts kept for update, built by the first update
+   private DataSet updateSet = null;
+   private Map<DecisionTreeNode, NodeStats> stats = null;
 
    /**
     * Answers static questions about decision trees.
@@ -34,6 +60,17 @@ public class DecisionTree
       // empty
    }
 
+   /**
+    * Answers static questions about decision trees on the pool of the settings.
+    * 
+    * @param settings
+    */
+   DecisionTree(TreeSettings settings)
+   {
+      this.settings = settings;
+      this.workers = settings.pool;
+   }
+
    /**
     * Build a decision tree given only a training set.
     * 
@@ -41,129 +78,795 @@ public class DecisionTree
     *           the training set
     */
    DecisionTree(DataSet trainSet)
+   {
+      this(trainSet, StoppingRules.NONE);
+   }
+
+   /**
+    * Build a decision tree given only a training set, stopping early where the rules say so.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param rules
+    */
+   DecisionTree(DataSet trainSet, StoppingRules rules)
+   {
+      this(trainSet, rules, TrainingBudget.UNLIMITED);
+   }
+
+   /**
+    * Build a decision tree given only a training set, growing it best-gain-first until the budget runs out.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param rules
+    * @param budget
+    */
+   DecisionTree(DataSet trainSet, StoppingRules rules, TrainingBudget budget)
+   {
+      this(trainSet, rules, budget, TreeSettings.DEFAULT);
+   }
+
+   /**
+    * Build a decision tree given only a training set with the given settings.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param rules
+    * @param budget
+    * @param settings
+    */
+   DecisionTree(DataSet trainSet, StoppingRules rules, TrainingBudget budget, TreeSettings settings)
+   {
+      this.labels = trainSet.labels;
+      this.attributes = trainSet.attributes;
+      this.attributeValues = trainSet.attributeValues;
+      this.rules = rules;
+      this.settings = settings;
+      this.workers = settings.pool;
+      this.budget = budget;
+      this.deadline = budget.deadline();
+      this.root = buildDecisionTree(trainSet.readOnly());
+
+      if (!budget.isLimited())
+      {
+         this.grownFrom = trainSet.readOnly();
+      }
+   }
+
+   /**
+    * Build one tree of a RandomForest serially over a sample of the training set, choosing each split among a random sample of the remaining attributes.
+    * 
+    * @param trainSet
+    *           read-only training set
+    * @param rows
+    *           rows of the sample, which may repeat
+    * @param rules
+    * @param sampleSize
+    *           number of attributes sampled for each split
+    * @param random
+    * @param settings
+    *           whose pool is not used
+    */
+   DecisionTree(DataSet trainSet, int[] rows, StoppingRules rules, int sampleSize, SplittableRandom random, TreeSettings settings)
    {
       this.labels = trainSet.labels;
       this.attributes = trainSet.attributes;
       this.attributeValues = trainSet.attributeValues;
-      this.root = buildDecisionTree(trainSet, plurality(trainSet), null, null, 0);
+      this.rules = rules;
+      this.settings = settings;
+      this.workers = null;
+      this.sampleSize = sampleSize;
+      this.random = random;
+      this.root = buildDecisionTree(trainSet, rows, 0, rows.length, null, newAttributeMask(trainSet), plurality(trainSet, rows, 0, rows.length), null, null, 0);
+   }
+
+   /**
+    * Wrap a tree grown elsewhere, such as by a HoeffdingTree.
+    * 
+    * @param header
+    *           a data set with the labels and attributes of the tree
+    * @param root
+    */
+   DecisionTree(DataSet header, DecisionTreeNode root)
+   {
+      this(header, root, TreeSettings.DEFAULT);
+   }
+
+   /**
+    * Wrap a tree with the settings it is pruned with.
+    * 
+    * @param header
+    *           a data set with the labels and attributes of the tree
+    * @param root
+    * @param settings
+    */
+   DecisionTree(DataSet header, DecisionTreeNode root, TreeSettings settings)
+   {
+      this.labels = header.labels;
+      this.attributes = header.attributes;
+      this.attributeValues = header.attributeValues;
+      this.settings = settings;
+      this.workers = settings.pool;
+      this.root = root;
+   }
+
+   /**
+    * Build an unpruned decision tree over every instance of the training set.
+    * 
+    * @param trainSet
+    * @return
+    */
+   private DecisionTreeNode buildDecisionTree(DataSet trainSet)
+   {
+      if (budget.isLimited())
+      {
+         return growBestFirst(trainSet);
+      }
+      else if (settings.levelWise)
+      {
+         return LevelWiseTreeBuilder.grow(trainSet, rules, settings.criterion);
+      }
+
+      int[] rows = allRows(trainSet);
+      String defaultClassification = plurality(trainSet, rows, 0, rows.length);
+
+      if (workers == null)
+      {
+         return buildDecisionTree(trainSet, rows, 0, rows.length, null, newAttributeMask(trainSet), defaultClassification, null, null, 0);
+      }
+
+      return workers.invoke(new Subtree(trainSet, rows, 0, rows.length, null, newAttributeMask(trainSet), defaultClassification, null, null, 0));
+   }
+
+   /**
+    * Builds one subtree as a fork-join task. Each task owns its range of the shared rows and its own copy of the used bitmask, so sibling subtrees can be built at the same time.
+    */
+   private class Subtree extends RecursiveTask<DecisionTreeNode>
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final DataSet trainSet;
+      private final int[] rows;
+      private final int from, to;
+      private final CountTable table;
+      private final long[] used;
+      private final String defaultClassification, parentAttribute, parentAttributeValue;
+      private final int level;
+
+      Subtree(DataSet trainSet, int[] rows, int from, int to, CountTable table, long[] used, String defaultClassification, String parentAttribute, String parentAttributeValue, int level)
+      {
+         this.trainSet = trainSet;
+         this.rows = rows;
+         this.from = from;
+         this.to = to;
+         this.table = table;
+         this.used = used;
+         this.defaultClassification = defaultClassification;
+         this.parentAttribute = parentAttribute;
+         this.parentAttributeValue = parentAttributeValue;
+         this.level = level;
+      }
+
+      @Override
+      protected DecisionTreeNode compute()
+      {
+         return buildDecisionTree(trainSet, rows, from, to, table, used, defaultClassification, parentAttribute, parentAttributeValue, level);
+      }
+   }
+
+   /**
+    * @param trainSet
+    *           the encoded training set
+    * @param rows
+    *           shared index of instances, rows[from, to) are the instances that reach this node and are partitioned in place by the split attribute
+    * @param table
+    *           counts of rows[from, to) over the attributes not in used, or null to count them here
+    * @param used
+    *           bitmask of the attributes already split on above this node
+    */
+   private DecisionTreeNode buildDecisionTree(DataSet trainSet, int[] rows, int from, int to, CountTable table, long[] used, String defaultClassification, String parentAttribute, String parentAttributeValue, int level)
+   {
+      if (from == to) // no more examples
+      {
+         return new DecisionTreeNode(defaultClassification, null, parentAttributeValue, true);
+      }
+      else if (sameClassification(trainSet, rows, from, to))
+      {
+         return new DecisionTreeNode(trainSet.labels.get(trainSet.label(rows[from])), null, parentAttributeValue, true);
+      }
+      else if (emptyAttributes(trainSet, used) || !rules.allowsSplit(level, to - from)) // no more attributes, or stopped early
+      {
+         return new DecisionTreeNode(plurality(trainSet, rows, from, to), null, parentAttributeValue, true);
+      }
+
+      // count every remaining attribute in one pass, then pick the best split from the counts
+      if (table == null)
+      {
+         table = CountTable.count(trainSet, rows, from, to, sample(used), workers);
+      }
+      int bestAttrInd = table.bestAttribute(settings.criterion, workers, rules);
+      defaultClassification = trainSet.labels.get(table.plurality());
+      if (bestAttrInd < 0) // no split satisfies the rules
+      {
+         return new DecisionTreeNode(defaultClassification, null, parentAttributeValue, true);
+      }
+      String bestAttr = trainSet.attributes.get(bestAttrInd);
+
+      DecisionTreeNode newNode = new DecisionTreeNode(defaultClassification, bestAttr, null, false);
+      newNode.attributeIndex = bestAttrInd;
+
+      if (parentAttribute != null && parentAttributeValue != null)
+      {
+         newNode.parentAttributeValue = parentAttributeValue;
+      }
+
+      List<String> values = trainSet.attributeValues.get(bestAttr);
+      int[] starts = partition(trainSet, bestAttrInd, values.size(), rows, from, to);
+
+      // build subtrees with the best attribute marked as used
+      used[bestAttrInd >> 6] |= 1L << bestAttrInd;
+
+      CountTable[] childTables = childTables(trainSet, rows, starts, table, bestAttrInd, used, level + 1);
+
+      // fork the large subtrees, build the small ones here, then add them all in value order
+      Subtree[] forked = new Subtree[values.size()];
+      if (workers != null && ForkJoinTask.getPool() == workers)
+      {
+         for (int i = 0; i < values.size(); i++)
+         {
+            if (starts[i + 1] - starts[i] >= settings.forkThreshold)
+            {
+               forked[i] = new Subtree(trainSet, rows, starts[i], starts[i + 1], childTables[i], used.clone(), defaultClassification, bestAttr, values.get(i), level + 1);
+               forked[i].fork();
+            }
+         }
+      }
+
+      for (int i = 0; i < values.size(); i++)
+      {
+         newNode.addChild(forked[i] != null ? forked[i].join() : buildDecisionTree(trainSet, rows, starts[i], starts[i + 1], childTables[i], used, defaultClassification, bestAttr, values.get(i), level + 1));
+      }
+
+      used[bestAttrInd >> 6] &= ~(1L << bestAttrInd);
+
+      return newNode;
+   }
+
+   /**
+    * Open leaf of a tree grown best-gain-first, with the split it would take.
+    */
+   private static class Candidate
+   {
+      final DecisionTreeNode node;
+      final int from, to; // its instances in the shared rows, disjoint from those of every other candidate
+      final long[] used;
+      final int attribute;
+      final double score;
+      final int level;
+
+      Candidate(DecisionTreeNode node, int from, int to, long[] used, int attribute, double score, int level)
+      {
+         this.node = node;
+         this.from = from;
+         this.to = to;
+         this.used = used;
+         this.attribute = attribute;
+         this.score = score;
+         this.level = level;
+      }
+   }
+
+   /**
+    * Grow a tree by always splitting the open leaf with the highest score next, until no leaf can be split or the budget runs out. Leaves still open at that point keep the plurality label of their instances, so the tree is valid at every step; with an unlimited budget it is the same tree the recursive build gives.
+    * 
+    * @param trainSet
+    * @return
+    */
+   private DecisionTreeNode growBestFirst(DataSet trainSet)
+   {
+      int[] rows = allRows(trainSet);
+      // highest score first, ties to the candidate whose rows come first
+      PriorityQueue<Candidate> open = new PriorityQueue<Candidate>((a, b) -> a.score != b.score ? Double.compare(b.score, a.score) : Integer.compare(a.from, b.from));
+      DecisionTreeNode tree = openLeaf(trainSet, rows, 0, rows.length, newAttributeMask(trainSet), plurality(trainSet, rows, 0, rows.length), null, 0, open);
+      int nodes = 1;
+
+      while (!open.isEmpty() && !budget.isOver(deadline))
+      {
+         Candidate next = open.poll();
+         String bestAttr = trainSet.attributes.get(next.attribute);
+         List<String> values = trainSet.attributeValues.get(bestAttr);
+
+         if (nodes + values.size() > budget.maxNodes) // too big for what is left, stays a leaf
+         {
+            continue;
+         }
+         nodes += values.size();
+
+         DecisionTreeNode node = next.node;
+         node.terminal = false;
+         node.attribute = bestAttr;
+         node.attributeIndex = next.attribute;
+         node.children = new ArrayList<DecisionTreeNode>();
+
+         int[] starts = partition(trainSet, next.attribute, values.size(), rows, next.from, next.to);
+         long[] used = next.used.clone();
+         used[next.attribute >> 6] |= 1L << next.attribute;
+
+         for (int i = 0; i < values.size(); i++)
+         {
+            node.addChild(openLeaf(trainSet, rows, starts[i], starts[i + 1], used, node.label, values.get(i), next.level + 1, open));
+         }
+      }
+
+      return tree;
    }
 
-   private DecisionTreeNode buildDecisionTree(DataSet trainSet, String defaultClassification, String parentAttribute, String parentAttributeValue, int level)
+   /**
+    * New leaf over rows[from, to), labeled as buildDecisionTree would label it and queued when it can still be split.
+    * 
+    * @return the leaf
+    */
+   private DecisionTreeNode openLeaf(DataSet trainSet, int[] rows, int from, int to, long[] used, String defaultClassification, String parentAttributeValue, int level,
+         PriorityQueue<Candidate> open)
    {
-      if (trainSet.instances.size() == 0) // no more examples
+      if (from == to) // no more examples
       {
          return new DecisionTreeNode(defaultClassification, null, parentAttributeValue, true);
       }
-      else if (sameClassification(trainSet))
+      else if (sameClassification(trainSet, rows, from, to))
+      {
+         return new DecisionTreeNode(trainSet.labels.get(trainSet.label(rows[from])), null, parentAttributeValue, true);
+      }
+      else if (emptyAttributes(trainSet, used) || !rules.allowsSplit(level, to - from)) // no more attributes, or stopped early
+      {
+         return new DecisionTreeNode(plurality(trainSet, rows, from, to), null, parentAttributeValue, true);
+      }
+
+      CountTable table = CountTable.count(trainSet, rows, from, to, used, workers);
+      int best = table.bestAttribute(settings.criterion, workers, rules);
+      DecisionTreeNode leaf = new DecisionTreeNode(trainSet.labels.get(table.plurality()), null, parentAttributeValue, true);
+
+      if (best >= 0)
+      {
+         open.add(new Candidate(leaf, from, to, used, best, settings.criterion.score(table, best, settings.criterion.impurity(table)), level));
+      }
+
+      return leaf;
+   }
+
+   /**
+    * Counts for the children of a split. Only children that will be split further get counts; an empty child, one with a single label or one the rules stop becomes a leaf without them, so its instances are not scanned. When the largest child will be split, its counts are the parent's minus those of its non-empty siblings, unless counting those siblings just for the subtraction would scan more instances than the largest child has, in which case it counts itself.
+    * 
+    * @param trainSet
+    * @param rows
+    * @param starts
+    *           partition of the rows by the value of the split attribute
+    * @param table
+    *           counts of the parent
+    * @param attribute
+    *           the split attribute
+    * @param used
+    *           bitmask of the attributes used, including the split attribute
+    * @param level
+    *           level of the children
+    * @return the counts of each child, or nulls
+    */
+   private CountTable[] childTables(DataSet trainSet, int[] rows, int[] starts, CountTable table, int attribute, long[] used, int level)
+   {
+      int children = starts.length - 1;
+      CountTable[] tables = new CountTable[children];
+
+      if (sampleSize > 0 || emptyAttributes(trainSet, used))
+      {
+         return tables;
+      }
+
+      // the parent's counts on the split attribute tell which children have more than one label
+      boolean[] splits = new boolean[children];
+      int largest = 0;
+      for (int i = 0; i < children; i++)
+      {
+         int size = starts[i + 1] - starts[i];
+         int labelsSeen = 0;
+         for (int k = 0; k < table.labels; k++)
+         {
+            if (table.count(attribute, i, k) > 0)
+            {
+               labelsSeen++;
+            }
+         }
+         splits[i] = labelsSeen >= 2 && rules.allowsSplit(level, size);
+
+         if (size > starts[largest + 1] - starts[largest])
+         {
+            largest = i;
+         }
+      }
+
+      // instances of the non-empty siblings of the largest child that only the subtraction would need counted
+      long extra = 0;
+      for (int i = 0; i < children; i++)
+      {
+         if (i != largest && !splits[i])
+         {
+            extra += starts[i + 1] - starts[i];
+         }
+      }
+      boolean subtract = splits[largest] && extra < starts[largest + 1] - starts[largest];
+
+      for (int i = 0; i < children; i++)
+      {
+         if (i != largest && starts[i + 1] > starts[i] && (splits[i] || subtract))
+         {
+            tables[i] = CountTable.count(trainSet, rows, starts[i], starts[i + 1], used, workers);
+         }
+      }
+
+      if (subtract)
+      {
+         tables[largest] = table.minus(tables, used);
+      }
+      else if (splits[largest])
+      {
+         tables[largest] = CountTable.count(trainSet, rows, starts[largest], starts[largest + 1], used, workers);
+      }
+
+      // children that become leaves were only counted for the subtraction
+      for (int i = 0; i < children; i++)
+      {
+         if (!splits[i])
+         {
+            tables[i] = null;
+         }
+      }
+
+      return tables;
+   }
+
+   /**
+    * Attributes left out of the split search at a node: the used ones and, when sampling, every remaining one outside a random sample of sampleSize.
+    * 
+    * @param used
+    * @return
+    */
+   private long[] sample(long[] used)
+   {
+      if (sampleSize <= 0)
+      {
+         return used;
+      }
+
+      int[] remaining = new int[attributes.size()];
+      int count = 0;
+      for (int i = 0; i < remaining.length; i++)
+      {
+         if ((used[i >> 6] & (1L << i)) == 0)
+         {
+            remaining[count++] = i;
+         }
+      }
+
+      if (count <= sampleSize)
+      {
+         return used;
+      }
+
+      // shuffle the sample to the front, then leave out the rest
+      for (int i = 0; i < sampleSize; i++)
+      {
+         int j = i + random.nextInt(count - i);
+         int swap = remaining[i];
+         remaining[i] = remaining[j];
+         remaining[j] = swap;
+      }
+
+      long[] excluded = used.clone();
+      for (int i = sampleSize; i < count; i++)
+      {
+         excluded[remaining[i] >> 6] |= 1L << remaining[i];
+      }
+
+      return excluded;
+   }
+
+   /**
+    * Counts kept for one node of a tree that is updated.
+    */
+   private static class NodeStats
+   {
+      final CountTable table; // counts of every instance reaching the node
+      final long[] used; // bitmask of the attributes used above the node
+      final int level;
+      int[] rows = null; // for leaves, the rows of the instances reaching them
+      int rowCount = 0;
+      boolean touched = false; // reached by an instance of the current update
+
+      NodeStats(CountTable table, long[] used, int level)
+      {
+         this.table = table;
+         this.used = used;
+         this.level = level;
+      }
+
+      void addRow(int row)
+      {
+         if (rowCount == rows.length)
+         {
+            rows = Arrays.copyOf(rows, Math.max(16, rowCount * 2));
+         }
+         rows[rowCount++] = row;
+      }
+   }
+
+   /**
+    * Add labeled instances to the training set and bring the tree up to date, so it is the tree a full rebuild over every instance would give (after Utgoff's ID5R). Each node keeps the counts of the instances reaching it, and each leaf their rows. The new instances update the counts along their paths, and then the touched nodes are checked from the root down. A node whose split is unchanged only has its label refreshed. A node that should now be split differently, or stop being split, has only its own subtree rebuilt from the instances of its leaves.
+    * 
+    * The counts are built on the first update, with one pass over the training set. Only trees grown from a training set alone, without a budget, can be updated.
+    * 
+    * @param instances
+    *           encoded with the labels and attributes of the training set
+    */
+   public void update(List<Instance> instances)
+   {
+      if (grownFrom == null)
+      {
+         throw new IllegalStateException("Only trees grown from a training set alone, without a budget, can be updated");
+      }
+
+      if (stats == null)
+      {
+         updateSet = grownFrom.emptyCopy();
+         updateSet.append(grownFrom);
+         stats = new IdentityHashMap<DecisionTreeNode, NodeStats>();
+         int[] rows = allRows(updateSet);
+         track(root, rows, 0, rows.length, newAttributeMask(updateSet), 0);
+      }
+
+      for (Instance instance : instances)
+      {
+         int row = updateSet.addInstance(instance);
+         DecisionTreeNode node = root;
+
+         while (true)
+         {
+            NodeStats nodeStats = stats.get(node);
+            nodeStats.table.add(updateSet, row);
+            nodeStats.touched = true;
+
+            if (node.terminal)
+            {
+               nodeStats.addRow(row);
+               break;
+            }
+            node = node.children.get(instance.attributes[node.attributeIndex]);
+         }
+      }
+
+      refresh(root, labels.get(stats.get(root).table.plurality()), null);
+   }
+
+   /**
+    * Count the instances of rows[from, to) at a node and at every node below it.
+    */
+   private void track(DecisionTreeNode node, int[] rows, int from, int to, long[] used, int level)
+   {
+      NodeStats nodeStats = new NodeStats(CountTable.count(updateSet, rows, from, to, used, null), used, level);
+      stats.put(node, nodeStats);
+
+      if (node.terminal)
+      {
+         nodeStats.rows = Arrays.copyOfRange(rows, from, to);
+         nodeStats.rowCount = to - from;
+         return;
+      }
+
+      int[] starts = partition(updateSet, node.attributeIndex, node.children.size(), rows, from, to);
+      long[] childUsed = used.clone();
+      childUsed[node.attributeIndex >> 6] |= 1L << node.attributeIndex;
+
+      for (int i = 0; i < node.children.size(); i++)
+      {
+         track(node.children.get(i), rows, starts[i], starts[i + 1], childUsed, level + 1);
+      }
+   }
+
+   /**
+    * Make a node and the touched nodes below it what buildDecisionTree would make of their instances.
+    * 
+    * @param node
+    * @param defaultClassification
+    *           plurality of the parent, the label of a node without instances
+    * @param parentAttribute
+    *           attribute the parent splits on, null for the root
+    */
+   private void refresh(DecisionTreeNode node, String defaultClassification, String parentAttribute)
+   {
+      NodeStats nodeStats = stats.get(node);
+      CountTable table = nodeStats.table;
+
+      if (!nodeStats.touched)
+      {
+         if (table.size == 0) // no more examples, so it follows its parent
+         {
+            node.label = defaultClassification;
+         }
+         return;
+      }
+      nodeStats.touched = false;
+
+      String plurality = labels.get(table.plurality());
+      int best = -1;
+      if (!table.sameClassification() && !emptyAttributes(updateSet, nodeStats.used) && rules.allowsSplit(nodeStats.level, table.size))
+      {
+         best = table.bestAttribute(settings.criterion, null, rules);
+      }
+
+      if (best < 0) // a leaf now
+      {
+         if (!node.terminal)
+         {
+            int[] rows = gather(node);
+            node.terminal = true;
+            node.attribute = null;
+            node.attributeIndex = -1;
+            node.children = null;
+            nodeStats.rows = rows;
+            nodeStats.rowCount = rows.length;
+         }
+         node.label = plurality;
+      }
+      else if (!node.terminal && node.attributeIndex == best) // same split
       {
-         return new DecisionTreeNode(trainSet.instances.get(0).label, null, parentAttributeValue, true);
+         node.label = plurality;
+         for (DecisionTreeNode child : node.children)
+         {
+            refresh(child, plurality, node.attribute);
+         }
       }
-      else if (emptyAttributes(trainSet.attributes)) // no more attributes
+      else // split differently, regrow the subtree
       {
-         return new DecisionTreeNode(plurality(trainSet), null, parentAttributeValue, true);
-      }
+         int[] rows = gather(node);
+         DecisionTreeNode grown = buildDecisionTree(updateSet, rows, 0, rows.length, table, nodeStats.used.clone(), defaultClassification, parentAttribute,
+               node.parentAttributeValue, nodeStats.level);
 
-      String bestAttr = bestAttribute(trainSet, false);
-      int bestAttrInd = getAttributeIndex(bestAttr);
-      defaultClassification = plurality(trainSet);
+         node.label = grown.label;
+         node.attribute = grown.attribute;
+         node.attributeIndex = grown.attributeIndex;
+         node.terminal = grown.terminal;
+         node.children = grown.children;
+         track(node, rows, 0, rows.length, nodeStats.used, nodeStats.level);
+      }
+   }
 
-      // new attributes list with best attribute removed
-      ArrayList<String> newAttributes = new ArrayList<String>(trainSet.attributes);
+   /**
+    * Rows of the instances reaching a node, taken from its leaves, dropping the counts of every node below it.
+    */
+   private int[] gather(DecisionTreeNode node)
+   {
+      NodeStats nodeStats = stats.get(node);
+      int[] rows = new int[nodeStats.table.size];
+      int count = 0;
 
-      for (int i = 0; i < newAttributes.size(); i++)
+      Stack<DecisionTreeNode> stack = new Stack<DecisionTreeNode>();
+      stack.push(node);
+      while (!stack.isEmpty())
       {
-         if (newAttributes.get(i) != null && newAttributes.get(i).equals(bestAttr))
+         DecisionTreeNode curr = stack.pop();
+         NodeStats currStats = curr == node ? nodeStats : stats.remove(curr);
+
+         if (curr.terminal)
          {
-            newAttributes.remove(i);
-            newAttributes.add(i, null);
-            i += newAttributes.size();
+            System.arraycopy(currStats.rows, 0, rows, count, currStats.rowCount);
+            count += currStats.rowCount;
+         }
+         else
+         {
+            stack.addAll(curr.children);
          }
       }
 
-      DecisionTreeNode newNode = new DecisionTreeNode(defaultClassification, bestAttr, null, false);
+      nodeStats.rows = null;
+      nodeStats.rowCount = 0;
 
-      if (parentAttribute != null && parentAttributeValue != null)
+      return rows;
+   }
+
+   /**
+    * Partition rows[from, to) in place so that the instances taking value v of the attribute are contiguous and in value order.
+    * 
+    * @param set
+    * @param attribute
+    * @param valueCount
+    * @param rows
+    * @param from
+    * @param to
+    * @return starts, where the instances taking value v are rows[starts[v], starts[v + 1])
+    */
+   static int[] partition(DataSet set, int attribute, int valueCount, int[] rows, int from, int to)
+   {
+      int[] starts = new int[valueCount + 1];
+      for (int j = from; j < to; j++)
       {
-         newNode.parentAttributeValue = parentAttributeValue;
+         starts[set.value(rows[j], attribute) + 1]++;
       }
 
-      // build subtrees
-      for (int i = 0; i < trainSet.attributeValues.get(bestAttr).size(); i++)
+      starts[0] = from;
+      for (int v = 1; v <= valueCount; v++)
       {
-         DataSet newTrainSet = new DataSet(); // prepare new DataSet
+         starts[v] += starts[v - 1];
+      }
 
-         newTrainSet.instances = new ArrayList<Instance>();
-         newTrainSet.labels = trainSet.labels;
-         newTrainSet.attributeValues = trainSet.attributeValues;
-         newTrainSet.attributes = newAttributes;
+      // swap each instance into the next free slot of its value until every bucket is full
+      int[] next = new int[valueCount];
+      System.arraycopy(starts, 0, next, 0, valueCount);
 
-         String currVal = trainSet.attributeValues.get(bestAttr).get(i);
+      for (int v = 0; v < valueCount; v++)
+      {
+         while (next[v] < starts[v + 1])
+         {
+            int row = rows[next[v]];
+            int value = set.value(row, attribute);
 
-         for (int j = 0; j < trainSet.instances.size(); j++)
-         { 
-            Instance currInstance = trainSet.instances.get(j);
-            if (currInstance.attributes.get(bestAttrInd).equals(currVal))
+            if (value == v)
+            {
+               next[v]++;
+            }
+            else
             {
-               newTrainSet.instances.add(currInstance); // add into new trainSet
+               rows[next[v]] = rows[next[value]];
+               rows[next[value]++] = row;
             }
          }
-
-         newNode.addChild(buildDecisionTree(newTrainSet, defaultClassification, bestAttr, currVal, level + 1));
       }
 
-      return newNode;
+      return starts;
    }
 
    /**
-    * Calculate the entropy of the class label.
+    * Rows of every instance in a data set.
     * 
-    * @param trainSet
+    * @param set
     * @return
     */
-   private double classEntropy(DataSet trainSet)
+   private int[] allRows(DataSet set)
    {
-      double p0, p1;
-      double[] classCounts = new double[] { 1.0, 0.0 };
-      String firstClassEncountered = trainSet.instances.get(0).label;
-
-      for (int i = 1; i < trainSet.instances.size(); i++)
+      int[] rows = new int[set.size];
+      for (int i = 0; i < rows.length; i++)
       {
-         if (trainSet.instances.get(i).label.equals(firstClassEncountered))
-         {
-            classCounts[0]++;
-         }
-         else
-         {
-            classCounts[1]++;
-         }
+         rows[i] = i;
       }
 
-      p0 = classCounts[0] / trainSet.instances.size();
-      p1 = classCounts[1] / trainSet.instances.size();
+      return rows;
+   }
 
-      return (-p0 * Math.log(p0) - p1 * Math.log(p1)) / Math.log(2);
+   /**
+    * Empty bitmask with one bit per attribute of the data set.
+    * 
+    * @param set
+    * @return
+    */
+   private long[] newAttributeMask(DataSet set)
+   {
+      return new long[(set.attributes.size() + 63) >> 6];
    }
 
    /**
-    * Determine plurality of a given dataSet.
+    * Determine plurality of the given instances.
     * 
     * @param parent
+    * @param rows
+    * @param from
+    * @param to
     * @return
     */
-   private String plurality(DataSet parent)
+   private String plurality(DataSet parent, int[] rows, int from, int to)
    {
       int[] counts = new int[parent.labels.size()];
 
-      for (int i = 0; i < parent.instances.size(); i++)
+      for (int i = from; i < to; i++)
       {
-         String curr = parent.instances.get(i).label;
-         for (int j = 0; j < parent.labels.size(); j++)
-         {
-            if (curr.equals(parent.labels.get(j)))
-            {
-               counts[j]++;
-            }
-         }
+         counts[parent.label(rows[i])]++;
       }
 
       int maxCount = counts[0]; // determine the plurality
@@ -185,14 +888,17 @@ public class DecisionTree
     * Determine if all examples in the training set have the same classification (label).
     * 
     * @param trainSet
+    * @param rows
+    * @param from
+    * @param to
     * @return
     */
-   private boolean sameClassification(DataSet trainSet)
+   private boolean sameClassification(DataSet trainSet, int[] rows, int from, int to)
    {
-      String label = trainSet.instances.get(0).label;
-      for (int i = 1; i < trainSet.instances.size(); i++)
+      int label = trainSet.label(rows[from]);
+      for (int i = from + 1; i < to; i++)
       {
-         if (!trainSet.instances.get(i).label.equals(label))
+         if (trainSet.label(rows[i]) != label)
          {
             return false;
          }
@@ -204,14 +910,15 @@ public class DecisionTree
    /**
     * Determine if there are no remaining attributes to consider.
     * 
-    * @param attributez
+    * @param trainSet
+    * @param used
     * @return
     */
-   private boolean emptyAttributes(List<String> attributez)
+   private boolean emptyAttributes(DataSet trainSet, long[] used)
    {
-      for (int i = 0; i < attributez.size(); i++)
+      for (int i = 0; i < trainSet.attributes.size(); i++)
       {
-         if (attributez.get(i) != null)
+         if ((used[i >> 6] & (1L << i)) == 0)
          {
             return false;
          }
@@ -222,44 +929,29 @@ public class DecisionTree
 
    public String classify(Instance instance)
    {
-      return classify(instance, root);
+      DecisionTreeNode curr = root;
+      while (!curr.terminal)
+      {
+         curr = curr.children.get(instance.attributes[curr.attributeIndex]);
+      }
+
+      return curr.label;
    }
 
    /**
-    * Classify given an instance and the root to a decision tree.
+    * Classify an encoded instance given the root to a decision tree.
     * 
-    * @param instance
+    * @param set
+    * @param row
     * @param newRoot
     * @return
     */
-   private String classify(Instance instance, DecisionTreeNode newRoot)
+   private String classify(DataSet set, int row, DecisionTreeNode newRoot)
    {
       DecisionTreeNode curr = newRoot;
       while (!curr.terminal)
       {
-         String currAttrVal = instance.attributes.get(getAttributeIndex(curr.attribute));
-         boolean found = false;
-         // for each attribute (equiv. to number of levels of tree)
-         int size = curr.children.size();
-         for (int i = 0; i < size; i++)
-         {
-            if (currAttrVal.equals(curr.children.get(i).parentAttributeValue))
-            {
-               curr = curr.children.get(i);
-               if (curr.attribute == null)
-               {
-                  break;
-               }
-
-               currAttrVal = instance.attributes.get(getAttributeIndex(curr.attribute));
-               i += 10000;
-               found = true;
-            }
-         }
-         if (!found)
-         {
-            return curr.label;
-         }
+         curr = curr.children.get(set.value(row, curr.attributeIndex));
       }
 
       return curr.label;
@@ -267,86 +959,16 @@ public class DecisionTree
 
    public void rootInfoGain(DataSet trainSet)
    {
-      bestAttribute(trainSet, true);
-   }
-
-   /**
-    * Select the best attribute for a training set and print if needed.
-    * 
-    * @param trainSet
-    * @param print
-    * @return
-    */
-   private String bestAttribute(DataSet trainSet, boolean print)
-   {
-      double classEntropy = classEntropy(trainSet), maxTotalInfoGain = -1000000000;
-      String bestAttr = null;
+      int[] rows = allRows(trainSet);
+      CountTable table = CountTable.count(trainSet, rows, 0, rows.length, newAttributeMask(trainSet), workers);
+      double[] gains = table.scores(SplitCriterion.ENTROPY, workers);
 
-      for (int i = 0; i < trainSet.attributes.size(); i++) // for each attribute
+      // printed once every gain is known, in attribute order
+      for (int slot = 0; slot < gains.length; slot++)
       {
-         if (trainSet.attributes.get(i) == null)
-         {
-            continue;
-         }
-
-         double totalInfoGain = classEntropy; // reset totalInfoGain
-         String attribute = trainSet.attributes.get(i); // get the attribute
-         double[][] attributeCounts = new double[trainSet.attributeValues.get(attribute).size()][2]; // [attributeValue][label]
-
-         for (int j = 0; j < trainSet.instances.size(); j++)
-         {
-            String currValue = trainSet.instances.get(j).attributes.get(i);
-            for (int k = 0; k < trainSet.attributeValues.get(attribute).size(); k++) // for
-                                                                                     // each
-                                                                                     // attribute
-                                                                                     // value
-            {
-               if (currValue.equals(trainSet.attributeValues.get(attribute).get(k))) // if
-               {
-                  if (trainSet.instances.get(j).label.equals(trainSet.labels.get(0)))
-                  {
-                     attributeCounts[k][0]++;
-                  }
-                  else if (trainSet.instances.get(j).label.equals(trainSet.labels.get(1)))
-                  {
-                     attributeCounts[k][1]++;
-                  }
-
-                  k += trainSet.attributeValues.get(attribute).size();
-               }
-            }
-         }
-
-         for (int j = 0; j < attributeCounts.length; j++)
-         { // for each
-           // attribute value
-            double sum = attributeCounts[j][0] + attributeCounts[j][1];
-            double p0 = attributeCounts[j][0] / sum;
-            double p1 = attributeCounts[j][1] / sum;
-
-            if (p0 > 0)
-            {
-               totalInfoGain += sum / trainSet.instances.size() * (p0 * Math.log(p0)) / Math.log(2);
-            }
-            if (p1 > 0)
-            {
-               totalInfoGain += sum / trainSet.instances.size() * (p1 * Math.log(p1)) / Math.log(2);
-            }
-         }
-
-         if (print)
-         {
-            System.out.print(trainSet.attributes.get(i) + " ");
-            System.out.format("%.5f\n", totalInfoGain);
-         }
-
-         if (totalInfoGain > maxTotalInfoGain) 
-         {
-            maxTotalInfoGain = totalInfoGain;
-            bestAttr = trainSet.attributes.get(i);
-         }
+         System.out.print(trainSet.attributes.get(table.attributes[slot]) + " ");
+         System.out.format("%.5f\n", gains[slot]);
       }
-      return bestAttr;
    }
 
    public void printAccuracy(DataSet test)
@@ -369,15 +991,15 @@ public class DecisionTree
       }
 
       double count = 0.0;
-      for (Instance instance : test.instances)
+      for (int i = 0; i < test.size; i++)
       {
-         if (instance.label.equals(classify(instance, newRoot)))
+         if (test.labels.get(test.label(i)).equals(classify(test, i, newRoot)))
          {
             count++;
          }
       }
 
-      return count / test.instances.size();
+      return count / test.size;
    }
 
    /**
@@ -389,44 +1011,230 @@ public class DecisionTree
     *           the tuning set
     */
    DecisionTree(DataSet trainSet, DataSet tuneSet)
+   {
+      this(trainSet, tuneSet, StoppingRules.NONE);
+   }
+
+   /**
+    * Build decision trees that stop early where the rules say so, then prune them using a tuning set.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param tune:
+    *           the tuning set
+    * @param rules
+    */
+   DecisionTree(DataSet trainSet, DataSet tuneSet, StoppingRules rules)
+   {
+      this(trainSet, tuneSet, rules, TrainingBudget.UNLIMITED);
+   }
+
+   /**
+    * Build decision trees and prune them using a tuning set within a budget. Every tree is grown under the budget's node limit, and once time runs out no further pruning pass is started, leaving the best tree found so far. A budget too small to split the root gives a single leaf, kept as it is.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param tune:
+    *           the tuning set
+    * @param rules
+    * @param budget
+    */
+   DecisionTree(DataSet trainSet, DataSet tuneSet, StoppingRules rules, TrainingBudget budget)
+   {
+      this(trainSet, tuneSet, rules, budget, TreeSettings.DEFAULT);
+   }
+
+   /**
+    * Build decision trees and prune them using a tuning set within a budget, with the given settings.
+    * 
+    * @param trainSet:
+    *           the training set
+    * @param tune:
+    *           the tuning set
+    * @param rules
+    * @param budget
+    * @param settings
+    */
+   DecisionTree(DataSet trainSet, DataSet tuneSet, StoppingRules rules, TrainingBudget budget, TreeSettings settings)
    {
       this.labels = trainSet.labels;
       this.attributes = trainSet.attributes;
       this.attributeValues = trainSet.attributeValues;
-      root = buildDecisionTree(trainSet, plurality(trainSet), null, null, 0);
+      this.rules = rules;
+      this.settings = settings;
+      this.workers = settings.pool;
+      this.budget = budget;
+      this.deadline = budget.deadline();
+
+      // work on read-only views of the instances
+      trainSet = trainSet.readOnly();
+      tuneSet = tuneSet.readOnly();
+      root = buildDecisionTree(trainSet);
+
+      if (root.children == null) // the rules or the node budget stopped at the root, so there is nothing to prune
+      {
+         return;
+      }
+
+      if (settings.reducedErrorPruning)
+      {
+         int[] rows = allRows(tuneSet);
+         reducedErrorPrune(tuneSet, rows, 0, rows.length, root);
+         return;
+      }
 
       // use pruning algorithms; this sequence produced good results
-      for (int i = 0; i < 3; i++)
+      List<Pruner> freshTrees = new ArrayList<Pruner>();
+      PruningSearch search = settings.pruningSearch;
+      SplittableRandom searchRandom = new SplittableRandom(search.seed);
+      long searchDeadline = search.time.deadline();
+      for (int i = 0; i < search.restarts; i++)
       {
-         randomPrune(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-         randomPrune2(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
+         SplittableRandom restartRandom = searchRandom.split();
+         SplittableRandom restartRandom2 = searchRandom.split();
+         freshTrees.add((tree, train, tune, pruneRoot) -> tree.randomPrune(train, tune, pruneRoot, restartRandom, searchDeadline));
+         freshTrees.add((tree, train, tune, pruneRoot) -> tree.randomPrune2(train, tune, pruneRoot, restartRandom2, searchDeadline));
       }
+      freshTrees.addAll(Arrays.<Pruner> asList(DecisionTree::splitPrune, DecisionTree::splitPrune2, DecisionTree::splitPrune3, DecisionTree::splitPrune4,
+            DecisionTree::DFSprune, DecisionTree::DFSprune2, DecisionTree::BFSprune, DecisionTree::BFSprune2, DecisionTree::twinPrune, DecisionTree::twinPrune2));
+
+      List<Pruner> refinements = Arrays.<Pruner> asList(DecisionTree::splitPrune, DecisionTree::splitPrune2, DecisionTree::splitPrune3, DecisionTree::splitPrune4,
+            DecisionTree::BFSprune, DecisionTree::DFSprune, DecisionTree::DFSprune2, DecisionTree::BFSprune2, DecisionTree::twinPrune, DecisionTree::twinPrune2);
 
-      splitPrune(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      splitPrune2(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      splitPrune3(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      splitPrune4(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      DFSprune(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      DFSprune2(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      BFSprune(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      BFSprune2(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      twinPrune(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
-      twinPrune2(trainSet, tuneSet, buildDecisionTree(trainSet, plurality(trainSet), null, null, 0));
+      root = bestPruned(root, freshTrees, trainSet, tuneSet);
 
       for (int j = 0; j < 2; j++)
       {
-         splitPrune(trainSet, tuneSet, root);
-         splitPrune2(trainSet, tuneSet, root);
-         splitPrune3(trainSet, tuneSet, root);
-         splitPrune4(trainSet, tuneSet, root);
+         for (Pruner pruner : refinements)
+         {
+            if (budget.isOver(deadline))
+            {
+               return;
+            }
+            pruner.prune(this, trainSet, tuneSet, root);
+         }
+      }
+   }
+
+   /**
+    * A pruning heuristic, which prunes the tree rooted at pruneRoot and keeps it as the root of a tree when it is at least as accurate.
+    */
+   private interface Pruner
+   {
+      void prune(DecisionTree tree, DataSet trainSet, DataSet tuneSet, DecisionTreeNode pruneRoot);
+   }
+
+   /**
+    * Prune a copy of a grown tree with each of the pruners, independently of one another. Each copy is pruned in its own task on the pool, or one after another when the pool is null, against a tree of its own rooted at the grown tree, which is never pruned itself. Pruners that would start once time has run out are skipped.
+    * 
+    * @param grown
+    * @param pruners
+    * @param trainSet
+    * @param tuneSet
+    * @return the most accurate on the tune set of the grown tree and the pruners' results, the result of the later pruner on ties
+    */
+   private DecisionTreeNode bestPruned(DecisionTreeNode grown, List<Pruner> pruners, DataSet trainSet, DataSet tuneSet)
+   {
+      List<Callable<DecisionTreeNode>> tasks = new ArrayList<Callable<DecisionTreeNode>>();
+      for (Pruner pruner : pruners)
+      {
+         tasks.add(() ->
+         {
+            if (budget.isOver(deadline))
+            {
+               return grown;
+            }
+
+            DecisionTree trial = new DecisionTree(trainSet, grown, settings);
+            pruner.prune(trial, trainSet, tuneSet, grown.copy());
+            return trial.root;
+         });
+      }
+
+      List<DecisionTreeNode> results = new ArrayList<DecisionTreeNode>();
+      try
+      {
+         if (workers == null)
+         {
+            for (Callable<DecisionTreeNode> task : tasks)
+            {
+               results.add(task.call());
+            }
+         }
+         else
+         {
+            for (Future<DecisionTreeNode> result : workers.invokeAll(tasks))
+            {
+               results.add(result.get());
+            }
+         }
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Failed to prune a tree", e.getCause());
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Failed to prune a tree", e);
+      }
+
+      DecisionTreeNode best = grown;
+      double bestAccuracy = accuracy(tuneSet, grown);
+      for (DecisionTreeNode result : results)
+      {
+         double resultAccuracy = accuracy(tuneSet, result);
+         if (resultAccuracy >= bestAccuracy)
+         {
+            best = result;
+            bestAccuracy = resultAccuracy;
+         }
+      }
+
+      return best;
+   }
+
+   /**
+    * Reduced-error pruning in one bottom-up pass. The tune instances are partitioned down the tree once, the way buildDecisionTree partitions the training instances, and after its children are pruned a node becomes terminal when its own label is wrong for no more of its tune instances than its pruned subtree is.
+    * 
+    * @param tuneSet
+    * @param rows
+    *           shared index of tune instances, rows[from, to) are the ones reaching the node and are partitioned in place
+    * @param from
+    * @param to
+    * @param node
+    * @return the number of rows[from, to) the pruned subtree misclassifies
+    */
+   private int reducedErrorPrune(DataSet tuneSet, int[] rows, int from, int to, DecisionTreeNode node)
+   {
+      int label = labels.indexOf(node.label);
+      int leafErrors = 0;
+      for (int i = from; i < to; i++)
+      {
+         if (tuneSet.label(rows[i]) != label)
+         {
+            leafErrors++;
+         }
+      }
+
+      if (node.terminal)
+      {
+         return leafErrors;
+      }
+
+      int[] starts = partition(tuneSet, node.attributeIndex, node.children.size(), rows, from, to);
+      int subtreeErrors = 0;
+      for (int i = 0; i < node.children.size(); i++)
+      {
+         subtreeErrors += reducedErrorPrune(tuneSet, rows, starts[i], starts[i + 1], node.children.get(i));
+      }
 
-         BFSprune(trainSet, tuneSet, root);
-         DFSprune(trainSet, tuneSet, root);
-         DFSprune2(trainSet, tuneSet, root);
-         BFSprune2(trainSet, tuneSet, root);
-         twinPrune(trainSet, tuneSet, root);
-         twinPrune2(trainSet, tuneSet, root);
+      if (leafErrors <= subtreeErrors)
+      {
+         node.terminal = true;
+         return leafErrors;
       }
+
+      return subtreeErrors;
    }
 
    /**
@@ -445,7 +1253,8 @@ public class DecisionTree
          stack.push(pruneRoot.children.get(i));
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!stack.isEmpty())
       {
@@ -464,13 +1273,13 @@ public class DecisionTree
             }
          }
 
-         curr.terminal = true;
+         evaluator.setTerminal(curr, true);
 
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -478,7 +1287,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -493,7 +1302,8 @@ public class DecisionTree
          stack.push(pruneRoot.children.get(i));
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!stack.isEmpty())
       {
@@ -512,13 +1322,13 @@ public class DecisionTree
             }
          }
 
-         curr.terminal = true;
+         evaluator.setTerminal(curr, true);
 
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -527,7 +1337,7 @@ public class DecisionTree
 
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -549,7 +1359,8 @@ public class DecisionTree
          queue.add(pruneRoot.children.get(i));
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!queue.isEmpty())
       {
@@ -568,13 +1379,13 @@ public class DecisionTree
             }
          }
 
-         curr.terminal = true;
+         evaluator.setTerminal(curr, true);
 
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -582,7 +1393,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -597,7 +1408,8 @@ public class DecisionTree
          queue.add(pruneRoot.children.get(i));
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!queue.isEmpty())
       {
@@ -616,13 +1428,13 @@ public class DecisionTree
             }
          }
 
-         curr.terminal = true;
+         evaluator.setTerminal(curr, true);
 
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -630,7 +1442,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -663,17 +1475,18 @@ public class DecisionTree
          }
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove((int) (nodes.size() / 2.0));
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -681,7 +1494,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -705,24 +1518,24 @@ public class DecisionTree
          }
       }
 
-      preAccuracy = accuracy(tuneSet, pruneRoot);
+      preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove(nodes.size() - 1);
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
             preAccuracy = postAccuracy;
          }
       }
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -748,17 +1561,18 @@ public class DecisionTree
          }
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove((int) (nodes.size() / 2.0));
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -766,7 +1580,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -789,17 +1603,17 @@ public class DecisionTree
          }
       }
 
-      preAccuracy = accuracy(tuneSet, pruneRoot);
+      preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove(nodes.size() - 1);
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -807,7 +1621,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -845,17 +1659,18 @@ public class DecisionTree
          }
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove((int) (nodes.size() / 2.0));
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -863,7 +1678,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -886,16 +1701,16 @@ public class DecisionTree
          }
       }
 
-      preAccuracy = accuracy(tuneSet, pruneRoot);
+      preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove(nodes.size() - 1);
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
          if (preAccuracy >= postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -903,7 +1718,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -933,17 +1748,18 @@ public class DecisionTree
          }
       }
 
-      double preAccuracy = accuracy(tuneSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(tuneSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove((int) (nodes.size() / 2.0));
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -951,7 +1767,7 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
@@ -995,17 +1811,17 @@ public class DecisionTree
          }
       }
 
-      preAccuracy = accuracy(tuneSet, pruneRoot);
+      preAccuracy = evaluator.accuracy();
 
       while (!nodes.isEmpty())
       {
          DecisionTreeNode curr = nodes.remove(nodes.size() - 1);
-         curr.terminal = true;
-         double postAccuracy = accuracy(tuneSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
          if (preAccuracy > postAccuracy)
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -1013,14 +1829,14 @@ public class DecisionTree
          }
       }
 
-      if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+      if (accuracy(tuneSet, this.root) <= evaluator.accuracy())
       {
          this.root = pruneRoot;
       }
    }
 
    /**
-    * For all pairs of nodes, try pruning those. Only pair instead of triple or quadrule in consideration of time.
+    * For all pairs of nodes, try pruning those. Only pair instead of triple or quadrule in consideration of time. Each pair is scored from the counts of a TwinPruneScorer rather than by classifying the tune set.
     * 
     * @param trainSet
     * @param tuneSet
@@ -1047,9 +1863,10 @@ public class DecisionTree
          }
       }
 
+      TwinPruneScorer scorer = new TwinPruneScorer(tuneSet, nodes);
       for (int y = 0; y < 3; y++)
       {
-         double preAccuracy = accuracy(tuneSet, pruneRoot);
+         double preAccuracy = scorer.accuracy();
 
          ArrayList<Integer> nodeSelection = new ArrayList<Integer>();
 
@@ -1068,17 +1885,7 @@ public class DecisionTree
                nodeSelection.remove(1);
                nodeSelection.add(1, j);
 
-               for (int z = 0; z < nodeSelection.size(); z++)
-               {
-                  if (nodeSelection.get(z) == -1)
-                  {
-                     continue;
-                  }
-
-                  nodes.get(nodeSelection.get(z)).terminal = true;
-               }
-
-               double postAccuracy = accuracy(tuneSet, pruneRoot);
+               double postAccuracy = scorer.accuracyIfTerminal(nodeSelection);
 
                if (preAccuracy >= postAccuracy)
                {
@@ -1089,17 +1896,26 @@ public class DecisionTree
                         continue;
                      }
 
-                     nodes.get(nodeSelection.get(z)).terminal = false;
+                     scorer.setTerminal(nodeSelection.get(z), false);
                   }
                }
                else
                {
+                  for (int z = 0; z < nodeSelection.size(); z++)
+                  {
+                     if (nodeSelection.get(z) == -1)
+                     {
+                        continue;
+                     }
+
+                     scorer.setTerminal(nodeSelection.get(z), true);
+                  }
                   preAccuracy = postAccuracy;
                }
             }
          }
 
-         if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+         if (accuracy(tuneSet, this.root) <= scorer.accuracy())
          {
             this.root = pruneRoot;
          }
@@ -1126,9 +1942,10 @@ public class DecisionTree
          }
       }
 
+      TwinPruneScorer scorer = new TwinPruneScorer(tuneSet, nodes);
       for (int y = 0; y < 3; y++)
       {
-         double preAccuracy = accuracy(tuneSet, pruneRoot);
+         double preAccuracy = scorer.accuracy();
 
          ArrayList<Integer> nodeSelection = new ArrayList<Integer>();
          for (int i = 0; i < 3; i++)
@@ -1146,17 +1963,7 @@ public class DecisionTree
                nodeSelection.remove(1);
                nodeSelection.add(1, j);
 
-               for (int z = 0; z < nodeSelection.size(); z++)
-               {
-                  if (nodeSelection.get(z) == -1)
-                  {
-                     continue;
-                  }
-
-                  nodes.get(nodeSelection.get(z)).terminal = true;
-               }
-
-               double postAccuracy = accuracy(tuneSet, pruneRoot);
+               double postAccuracy = scorer.accuracyIfTerminal(nodeSelection);
 
                if (preAccuracy > postAccuracy)
                {
@@ -1166,17 +1973,26 @@ public class DecisionTree
                      {
                         continue;
                      }
-                     nodes.get(nodeSelection.get(z)).terminal = false;
+                     scorer.setTerminal(nodeSelection.get(z), false);
                   }
                }
                else
                {
+                  for (int z = 0; z < nodeSelection.size(); z++)
+                  {
+                     if (nodeSelection.get(z) == -1)
+                     {
+                        continue;
+                     }
+
+                     scorer.setTerminal(nodeSelection.get(z), true);
+                  }
                   preAccuracy = postAccuracy;
                }
             }
          }
 
-         if (accuracy(tuneSet, this.root) <= accuracy(tuneSet, pruneRoot))
+         if (accuracy(tuneSet, this.root) <= scorer.accuracy())
          {
             this.root = pruneRoot;
          }
@@ -1184,13 +2000,16 @@ public class DecisionTree
    }
 
    /**
-    * Randomly select a node from the BFS traversal to tune.
+    * Randomly select a node from the BFS traversal to tune, until time runs out for the pruning search.
     * 
     * @param trainSet
     * @param tuneSet
     * @param pruneRoot
+    * @param RNG
+    *           generator of this restart of the pruning search
+    * @param searchDeadline
     */
-   private void randomPrune(DataSet trainSet, DataSet tuneSet, DecisionTreeNode pruneRoot)
+   private void randomPrune(DataSet trainSet, DataSet tuneSet, DecisionTreeNode pruneRoot, SplittableRandom RNG, long searchDeadline)
    {
       ArrayList<DecisionTreeNode> nodes = new ArrayList<DecisionTreeNode>();
       nodes.add(pruneRoot);
@@ -1210,19 +2029,20 @@ public class DecisionTree
          }
       }
 
-      Random RNG = new Random();
-
-      double preAccuracy = accuracy(trainSet, pruneRoot);
+      PruningEvaluator evaluator = new PruningEvaluator(trainSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
+      int steps = nodes.size();
 
-      while (!nodes.isEmpty())
+      while (!nodes.isEmpty() && !settings.pruningSearch.time.isOver(searchDeadline))
       {
+         double temperature = settings.pruningSearch.temperature * nodes.size() / steps;
          DecisionTreeNode curr = nodes.remove(RNG.nextInt(nodes.size()));
-         curr.terminal = true;
-         double postAccuracy = accuracy(trainSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
-         if (preAccuracy >= postAccuracy)
+         if (preAccuracy == postAccuracy || preAccuracy > postAccuracy && !anneal(preAccuracy, postAccuracy, temperature, RNG))
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -1236,7 +2056,7 @@ public class DecisionTree
       }
    }
 
-   private void randomPrune2(DataSet trainSet, DataSet tuneSet, DecisionTreeNode pruneRoot)
+   private void randomPrune2(DataSet trainSet, DataSet tuneSet, DecisionTreeNode pruneRoot, SplittableRandom RNG, long searchDeadline)
    {
       ArrayList<DecisionTreeNode> nodes = new ArrayList<DecisionTreeNode>();
       nodes.add(pruneRoot);
@@ -1257,19 +2077,20 @@ public class DecisionTree
          }
       }
 
-      Random RNG = new Random();
+      PruningEvaluator evaluator = new PruningEvaluator(trainSet, pruneRoot);
+      double preAccuracy = evaluator.accuracy();
+      int steps = nodes.size();
 
-      double preAccuracy = accuracy(trainSet, pruneRoot);
-
-      while (!nodes.isEmpty())
+      while (!nodes.isEmpty() && !settings.pruningSearch.time.isOver(searchDeadline))
       {
+         double temperature = settings.pruningSearch.temperature * nodes.size() / steps;
          DecisionTreeNode curr = nodes.remove(RNG.nextInt(nodes.size()));
-         curr.terminal = true;
-         double postAccuracy = accuracy(trainSet, pruneRoot);
+         evaluator.setTerminal(curr, true);
+         double postAccuracy = evaluator.accuracy();
 
-         if (preAccuracy > postAccuracy)
+         if (preAccuracy > postAccuracy && !anneal(preAccuracy, postAccuracy, temperature, RNG))
          {
-            curr.terminal = false;
+            evaluator.setTerminal(curr, false);
          }
          else
          {
@@ -1284,6 +2105,21 @@ public class DecisionTree
       }
    }
 
+   /**
+    * Whether an annealing pass keeps a change that makes the accuracy worse, always false at temperature 0. Ties are left to each heuristic's own rule.
+    * 
+    * @param preAccuracy
+    * @param postAccuracy
+    *           less than preAccuracy
+    * @param temperature
+    * @param random
+    * @return
+    */
+   private static boolean anneal(double preAccuracy, double postAccuracy, double temperature, SplittableRandom random)
+   {
+      return temperature > 0 && random.nextDouble() < Math.exp((postAccuracy - preAccuracy) / temperature);
+   }
+
    /**
     * Print the decision tree in the specified format
     */
@@ -12,20 +12,43 @@
 //
 ///////////////////////////////////////////////////////////////////////////////
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class DecisionTreeBuilder 
 {
+	// options given as --name or --name=value anywhere on the command line
+	private static Map<String, String> options = new HashMap<String, String>();
 
 	public static void main(String[] args) 
 	{
+		args = parseOptions(args);
+
 		if (args.length < 3) 
 		{
 			System.out
-			.println("usage: java CommandProcessor <modeFlag: 0, 1, 2, 3> <trainFilename> <testFilename>");
+			.println("usage: java CommandProcessor <modeFlag: 0, 1, 2, 3> <trainFilename> <testFilename> [options]");
+			System.out.println("OR");
+			System.out.println("usage: java CommandProcessor <modeFlag: 4, 5, 6> <trainFilename> <testFilename> <tuneFilename> [options]");
 			System.out.println("OR");
-			System.out.println("usage: java CommandProcessor <modeFlag: 4, 5, 6> <trainFilename> <testFilename> <tuneFilename>");
+			System.out.println("usage: java CommandProcessor <modeFlag: 7, 8> <trainFilename> <testFilename> [--trees=n] [--seed=s] [--sample-attributes=n] [options]");
+			System.out.println("options:");
+			System.out.println("  --streaming [--delta=p] [--tie=t] [--grace=n] : modes 1-3 learn a Hoeffding tree while streaming the training file");
+			System.out.println("  --out-of-core : modes 1-3 build the tree with one scan of the training file per level instead of loading it");
+			System.out.println("  --max-depth=n --min-split=n --min-leaf=n --min-gain=g : stop growing trees at n levels, below n instances to split,");
+			System.out.println("      when a child would get fewer than n instances, or when the best gain is below g");
+			System.out.println("  --time-budget=ms --node-budget=n : grow trees best-gain-first with at most n nodes, and stop training and pruning after ms");
+			System.out.println("  --reduced-error : modes 4-6 prune with one bottom-up reduced-error pass over the tune set instead of the heuristics");
+			System.out.println("  --prune-restarts=n --prune-seed=s --anneal=t --prune-time=ms : modes 4-6 start pruning with n seeded random-order passes");
+			System.out.println("      of each random heuristic, annealing from temperature t if given, for at most ms");
+			System.out.println("  --criterion=c : choose splits by entropy (the default), gini or gain-ratio");
+			System.out.println("  --level-wise : grow trees a level at a time with one pass over the instances per level");
+			System.out.println("  --off-heap : keep loaded instances in direct buffers outside the Java heap; these count against -XX:MaxDirectMemorySize, which defaults to -Xmx, so raise it past the size of the data");
+			System.out.println("  --threads=n : search for splits, build subtrees and run pruning heuristics on n threads, 1 to run serially");
+			System.out.println("  --fork-rows=n : build subtrees of at least n instances as separate tasks");
 			System.exit(-1);
 		}
 
@@ -39,23 +62,85 @@ public class DecisionTreeBuilder
 		 * the classifications of a test set
 		 * mode 6 : create a decision tree from a training set then tune, output
 		 * the accuracy
+		 * mode 7 : create a random forest from a training set, output the classifications of a test set
+		 * mode 8 : create a random forest from a training set, output the accuracy
 		 */
 		int mode = Integer.parseInt(args[0]);
-		if (0 > mode || mode > 6) 
+		if (0 > mode || mode > 8) 
 		{
-			System.out.println("mode must be between 0 and 6");
+			System.out.println("mode must be between 0 and 8");
 			System.exit(-1);
 		}
 
+		ForkJoinPool pool = TreeSettings.DEFAULT.pool;
+		int threads = intOption("threads", 0);
+		if (threads == 1)
+		{
+			pool = null;
+		}
+		else if (threads > 1)
+		{
+			pool = new ForkJoinPool(threads);
+		}
+		PruningSearch pruningSearch = new PruningSearch(intOption("prune-restarts", PruningSearch.DEFAULT.restarts), longOption("prune-seed", PruningSearch.DEFAULT.seed),
+				doubleOption("anneal", PruningSearch.DEFAULT.temperature), longOption("prune-time", PruningSearch.DEFAULT.millis));
+
+		SplitCriterion criterion = TreeSettings.DEFAULT.criterion;
+		if (options.containsKey("criterion"))
+		{
+			try
+			{
+				criterion = SplitCriterion.named(options.get("criterion"));
+			}
+			catch (IllegalArgumentException e)
+			{
+				System.out.println(e.getMessage());
+				System.exit(-1);
+			}
+		}
+
+		StoppingRules rules = new StoppingRules(intOption("max-depth", StoppingRules.NONE.maxDepth), intOption("min-split", StoppingRules.NONE.minSplit),
+				intOption("min-leaf", StoppingRules.NONE.minLeaf), doubleOption("min-gain", StoppingRules.NONE.minGain));
+		TrainingBudget budget = new TrainingBudget(longOption("time-budget", TrainingBudget.UNLIMITED.millis), intOption("node-budget", TrainingBudget.UNLIMITED.maxNodes));
+		TreeSettings settings = new TreeSettings(criterion, options.containsKey("level-wise"), pool, intOption("fork-rows", TreeSettings.DEFAULT.forkThreshold),
+				options.containsKey("reduced-error"), pruningSearch);
+
 		if (mode == 0) {
-			(new DecisionTree()).rootInfoGain(createDataSet(args[1]));
+			(new DecisionTree(settings)).rootInfoGain(createDataSet(args[1]));
 			return;
 		}
 
-		DataSet trainSet = createDataSet(args[1]);
+		DataSet trainSet = null;
+		DecisionTree tree = null;
+
+		if (mode <= 3 && options.containsKey("streaming"))
+		{
+			HoeffdingTree learner = new HoeffdingTree(doubleOption("delta", HoeffdingTree.DEFAULT_DELTA), doubleOption("tie", HoeffdingTree.DEFAULT_TIE_THRESHOLD),
+					intOption("grace", HoeffdingTree.DEFAULT_GRACE_PERIOD));
+			trainSet = streamDataSet(args[1], learner);
+			tree = learner.toDecisionTree(trainSet);
+		}
+		else if (mode <= 3 && options.containsKey("out-of-core"))
+		{
+			try 
+			{
+				tree = OutOfCoreTreeBuilder.build(args[1], rules, criterion);
+				trainSet = DataSetLoader.header(args[1]);
+			} 
+			catch (Exception e) 
+			{
+				e.printStackTrace();
+				System.exit(-1);
+			}
+		}
+		else
+		{
+			trainSet = createDataSet(args[1]);
+		}
+
 		DataSet tuneSet = null;
 
-		if (mode >= 4) 
+		if (mode >= 4 && mode <= 6) 
 		{
 			tuneSet = createDataSet(args[3]);
 			if (!trainSet.sameMetaValues(tuneSet)) 
@@ -67,7 +152,7 @@ public class DecisionTreeBuilder
 		
 		DataSet testSet = null;
 		
-		if (mode == 2 || mode == 3 || mode == 5 || mode == 6) 
+		if (mode == 2 || mode == 3 || mode >= 5) 
 		{
 			testSet = createDataSet(args[2]);
 			if (!trainSet.sameMetaValues(testSet)) {
@@ -76,12 +161,31 @@ public class DecisionTreeBuilder
 			}
 		}
 
-		// Create decision tree
-		DecisionTree tree = null;
+		if (mode >= 7)
+		{
+			RandomForest forest = new RandomForest(trainSet, intOption("trees", RandomForest.DEFAULT_TREES), longOption("seed", RandomForest.DEFAULT_SEED), rules,
+					intOption("sample-attributes", RandomForest.defaultSampleSize(trainSet)), settings);
+			if (mode == 7)
+			{
+				for (Instance instance : testSet.instances) 
+				{
+					System.out.println(forest.classify(instance));
+				}
+			}
+			else
+			{
+				forest.printAccuracy(testSet);
+			}
+			return;
+		}
 
+		// Create decision tree
 		if (mode <= 3) 
 		{
-			tree = new DecisionTree(trainSet);
+			if (tree == null)
+			{
+				tree = new DecisionTree(trainSet, rules, budget, settings);
+			}
 			// Print accuracy of test
 			if (mode == 3)
 			{
@@ -90,7 +194,7 @@ public class DecisionTreeBuilder
 		} 
 		else 
 		{
-			tree = new DecisionTree(trainSet, tuneSet);
+			tree = new DecisionTree(trainSet, tuneSet, rules, budget, settings);
 			// print accuracy of test
 			if (mode == 6) 
 			{
@@ -113,6 +217,52 @@ public class DecisionTreeBuilder
 
 	}
 
+	/**
+	 * Pull the --name and --name=value options out of the command line.
+	 * 
+	 * @return the remaining arguments, in order
+	 */
+	private static String[] parseOptions(String[] args) {
+		List<String> remaining = new ArrayList<String>();
+
+		for (String arg : args) 
+		{
+			if (arg.startsWith("--")) 
+			{
+				int equals = arg.indexOf('=');
+				if (equals < 0) 
+				{
+					options.put(arg.substring(2), "true");
+				} 
+				else 
+				{
+					options.put(arg.substring(2, equals), arg.substring(equals + 1));
+				}
+			} 
+			else 
+			{
+				remaining.add(arg);
+			}
+		}
+
+		return remaining.toArray(new String[remaining.size()]);
+	}
+
+	private static int intOption(String name, int defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static long longOption(String name, long defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	private static double doubleOption(String name, double defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Double.parseDouble(value);
+	}
+
 	/**
 	 * Converts from text file format to DataSet format. From the homework spec: All data files
 	 * (training, tuning, test) will contain a list of classes and attribute values, followed by the
@@ -124,38 +274,32 @@ public class DecisionTreeBuilder
 	 * the file.
 	 */
 	private static DataSet createDataSet(String file) {
-		DataSet set = new DataSet();
-
-		BufferedReader in;
+		DataSet set = null;
 
 		try 
 		{
-			in = new BufferedReader(new FileReader(file));
+			set = DataSetLoader.load(file, options.containsKey("off-heap"));
+		} 
+		catch (Exception e) 
+		{
+			e.printStackTrace();
+			System.exit(-1);
+		}
 
-			while (in.ready()) 
-			{
-				String line = in.readLine();
-				String prefix = line.substring(0, 2);
-				
-				if (prefix.equals("//")) 
-				{
-					// do nothing
-				} 
-				else if (prefix.equals("%%")) 
-				{
-					set.addLabels(line);
-				} 
-				else if (prefix.equals("##")) 
-				{
-					set.addAttribute(line);
-				} 
-				else 
-				{
-					set.addInstance(line);
-				}
-			}
+		return set;
+	}
 
-			in.close();
+	/**
+	 * Streams a data file through a Hoeffding tree learner without keeping its instances.
+	 * 
+	 * @return the labels and attributes of the file
+	 */
+	private static DataSet streamDataSet(String file, HoeffdingTree learner) {
+		DataSet header = null;
+
+		try 
+		{
+			header = DataSetLoader.stream(file, learner::learn);
 		} 
 		catch (Exception e) 
 		{
@@ -163,6 +307,6 @@ public class DecisionTreeBuilder
 			System.exit(-1);
 		}
 
-		return set;
+		return header;
 	}
 }
@@ -19,6 +19,7 @@ import java.util.List;
 public class DecisionTreeNode {
    String label; // for
    String attribute;
+   int attributeIndex = -1; // position of attribute in the DataSet attributes list
    String parentAttributeValue; // if is the root, set to null
    boolean terminal;
    List<DecisionTreeNode> children;
@@ -47,4 +48,24 @@ public class DecisionTreeNode {
          children.add(child);
       }
    }
+
+   /**
+    * Copy the subtree rooted at this node, terminal flags included, so the
+    * copy can be pruned without touching the original.
+    */
+   DecisionTreeNode copy() {
+      DecisionTreeNode copy = new DecisionTreeNode(label, attribute, parentAttributeValue, terminal);
+      copy.attributeIndex = attributeIndex;
+
+      if (children == null) {
+         copy.children = null;
+      } else {
+         copy.children = new ArrayList<DecisionTreeNode>(children.size());
+         for (DecisionTreeNode child : children) {
+            copy.children.add(child.copy());
+         }
+      }
+
+      return copy;
+   }
 }
@@ -0,0 +1,93 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             HeapColumnStore.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.Arrays;
+
+/**
+ * Columns kept in short arrays on the Java heap.
+ */
+class HeapColumnStore extends ColumnStore
+{
+   private final short[][] columns;
+   private final boolean readOnly;
+
+   HeapColumnStore(int columns, int capacity)
+   {
+      this(new short[columns][capacity], false);
+   }
+
+   private HeapColumnStore(short[][] columns, boolean readOnly)
+   {
+      this.columns = columns;
+      this.readOnly = readOnly;
+   }
+
+   @Override
+   int get(int column, int row)
+   {
+      return columns[column][row];
+   }
+
+   @Override
+   void set(int column, int row, int code)
+   {
+      if (readOnly)
+      {
+         throw new UnsupportedOperationException("read-only columns");
+      }
+      columns[column][row] = (short) code;
+   }
+
+   @Override
+   int capacity()
+   {
+      return columns.length == 0 ? 0 : columns[0].length;
+   }
+
+   @Override
+   void grow(int capacity)
+   {
+      if (readOnly)
+      {
+         throw new UnsupportedOperationException("read-only columns");
+      }
+      for (int i = 0; i < columns.length; i++)
+      {
+         columns[i] = Arrays.copyOf(columns[i], capacity);
+      }
+   }
+
+   @Override
+   ColumnStore readOnly()
+   {
+      return new HeapColumnStore(columns, true);
+   }
+
+   @Override
+   void copy(ColumnStore from, int fromRow, int toRow, int count)
+   {
+      if (!(from instanceof HeapColumnStore) || readOnly)
+      {
+         super.copy(from, fromRow, toRow, count);
+         return;
+      }
+
+      for (int i = 0; i < columns.length; i++)
+      {
+         System.arraycopy(((HeapColumnStore) from).columns[i], fromRow, columns[i], toRow, count);
+      }
+   }
+
+   @Override
+   int columns()
+   {
+      return columns.length;
+   }
+}
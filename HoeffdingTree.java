@@ -0,0 +1,220 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             HoeffdingTree.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Incremental decision tree learner for streams of instances (Domingos and Hulten, "Mining High-Speed Data Streams"). Each leaf keeps a CountTable of the instances that reached it, and every gracePeriod instances it splits on the attribute with the highest information gain, as used by DecisionTree, once the Hoeffding bound shows that attribute is reliably ahead of the runner up. Memory depends on the size of the tree, not on the number of instances seen.
+ */
+public class HoeffdingTree
+{
+   static final double DEFAULT_DELTA = 1e-7;
+   static final double DEFAULT_TIE_THRESHOLD = 0.05;
+   static final int DEFAULT_GRACE_PERIOD = 200;
+
+   private final double delta; // allowed probability of splitting on the wrong attribute
+   private final double tieThreshold; // split anyway once the bound is below this
+   private final int gracePeriod; // instances a leaf sees between split attempts
+
+   private DataSet header = null; // labels and attributes, taken from the first instances
+   private DecisionTreeNode root = null;
+   private final Map<DecisionTreeNode, LeafStats> leaves = new IdentityHashMap<DecisionTreeNode, LeafStats>();
+   private Instance scratch = null; // reused row when learning from a batch
+
+   /**
+    * Sufficient statistics of one leaf.
+    */
+   private class LeafStats
+   {
+      CountTable table; // counts of the attributes not used above the leaf
+      long[] used; // bitmask of the attributes used above the leaf
+      int lastAttempt = 0; // number of instances seen at the last split attempt
+
+      LeafStats(long[] used)
+      {
+         this.used = used;
+         table = new CountTable(header.schema, used);
+      }
+   }
+
+   HoeffdingTree()
+   {
+      this(DEFAULT_DELTA, DEFAULT_TIE_THRESHOLD, DEFAULT_GRACE_PERIOD);
+   }
+
+   /**
+    * @param delta
+    *           allowed probability of splitting on the wrong attribute
+    * @param tieThreshold
+    *           split anyway once the Hoeffding bound falls below this
+    * @param gracePeriod
+    *           instances a leaf sees between split attempts
+    */
+   HoeffdingTree(double delta, double tieThreshold, int gracePeriod)
+   {
+      this.delta = delta;
+      this.tieThreshold = tieThreshold;
+      this.gracePeriod = gracePeriod;
+   }
+
+   /**
+    * Learn from every instance of a batch, in order.
+    */
+   public void learn(DataSet batch)
+   {
+      if (scratch == null)
+      {
+         scratch = new Instance(0, new int[batch.attributes.size()]);
+      }
+
+      for (int row = 0; row < batch.size; row++)
+      {
+         for (int i = 0; i < scratch.attributes.length; i++)
+         {
+            scratch.attributes[i] = batch.value(row, i);
+         }
+         scratch.label = batch.label(row);
+
+         learn(batch, scratch);
+      }
+   }
+
+   /**
+    * Learn from one instance.
+    *
+    * @param set
+    *           a data set with the labels and attributes of the instance
+    * @param instance
+    */
+   public void learn(DataSet set, Instance instance)
+   {
+      if (root == null)
+      {
+         header = set.emptyCopy();
+         root = new DecisionTreeNode(header.labels.get(0), null, null, true);
+         leaves.put(root, new LeafStats(new long[(header.attributes.size() + 63) >> 6]));
+      }
+
+      DecisionTreeNode leaf = root;
+      while (!leaf.terminal)
+      {
+         leaf = leaf.children.get(instance.attributes[leaf.attributeIndex]);
+      }
+
+      LeafStats stats = leaves.get(leaf);
+      stats.table.add(instance);
+
+      leaf.label = header.labels.get(stats.table.plurality());
+
+      if (stats.table.size - stats.lastAttempt >= gracePeriod)
+      {
+         stats.lastAttempt = stats.table.size;
+         attemptSplit(leaf, stats);
+      }
+   }
+
+   /**
+    * Split the leaf on the best attribute if the Hoeffding bound allows it.
+    */
+   private void attemptSplit(DecisionTreeNode leaf, LeafStats stats)
+   {
+      CountTable table = stats.table;
+      double classEntropy = table.classEntropy();
+      if (classEntropy == 0)
+      {
+         return; // pure leaf
+      }
+
+      int best = -1;
+      double bestGain = Double.NEGATIVE_INFINITY, secondGain = 0;
+
+      for (int i : table.attributes)
+      {
+         double gain = table.infoGain(i, classEntropy);
+         if (gain > bestGain)
+         {
+            secondGain = best < 0 ? secondGain : bestGain;
+            bestGain = gain;
+            best = i;
+         }
+         else if (gain > secondGain)
+         {
+            secondGain = gain;
+         }
+      }
+
+      if (best < 0 || bestGain <= 0)
+      {
+         return;
+      }
+
+      // the gain ranges over log2(number of labels)
+      double range = Math.log(header.labels.size()) / Math.log(2);
+      double bound = Math.sqrt(range * range * Math.log(1 / delta) / (2.0 * table.size));
+
+      if (bestGain - secondGain > bound || bound < tieThreshold)
+      {
+         split(leaf, stats, best);
+      }
+   }
+
+   /**
+    * Turn the leaf into an internal node on the attribute with one new leaf per value.
+    */
+   private void split(DecisionTreeNode leaf, LeafStats stats, int attribute)
+   {
+      String name = header.attributes.get(attribute);
+      long[] used = stats.used.clone();
+      used[attribute >> 6] |= 1L << attribute;
+
+      leaves.remove(leaf);
+      leaf.terminal = false;
+      leaf.attribute = name;
+      leaf.attributeIndex = attribute;
+      leaf.children = new ArrayList<DecisionTreeNode>();
+
+      for (int v = 0; v < stats.table.valueCounts[attribute]; v++)
+      {
+         // new leaves predict what the parent saw for their value until they see instances of their own
+         int plurality = 0;
+         for (int k = 1; k < stats.table.labels; k++)
+         {
+            if (stats.table.count(attribute, v, k) > stats.table.count(attribute, v, plurality))
+            {
+               plurality = k;
+            }
+         }
+         String label = stats.table.count(attribute, v, plurality) > 0 ? header.labels.get(plurality) : leaf.label;
+
+         DecisionTreeNode child = new DecisionTreeNode(label, null, header.attributeValues.get(name).get(v), true);
+         leaf.addChild(child);
+         leaves.put(child, new LeafStats(used));
+      }
+   }
+
+   /**
+    * The tree learned so far.
+    *
+    * @param header
+    *           a data set with the labels and attributes of the stream, used when no instance was seen
+    * @return
+    */
+   public DecisionTree toDecisionTree(DataSet header)
+   {
+      if (root == null)
+      {
+         return new DecisionTree(header, new DecisionTreeNode(header.labels.get(0), null, null, true));
+      }
+
+      return new DecisionTree(this.header, root);
+   }
+}
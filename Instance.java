@@ -8,27 +8,17 @@
 //
 //////////////////////////////////////////////////////////////////////////////
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Holds data for particular instance. Integer values refer to offsets in meta-data arrays of a surrounding DataSet.
  */
 public class Instance
 {
-   public String label;
-   public List<String> attributes = null;
+   public int label; // position of the label in the DataSet labels list
+   public int[] attributes = null; // position of each value in attributeValues, in the order of the DataSet attributes
 
-   /**
-    * Add attribute values in the order of attributes as specified by the dataset
-    */
-   public void addAttribute(String i)
+   Instance(int label, int[] attributes)
    {
-      if (attributes == null)
-      {
-         attributes = new ArrayList<String>();
-      }
-
-      attributes.add(i);
+      this.label = label;
+      this.attributes = attributes;
    }
 }
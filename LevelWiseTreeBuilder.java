@@ -0,0 +1,219 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             LevelWiseTreeBuilder.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grows the same tree as the recursive DecisionTree builder, one level at a time. Every open node of the current level, the frontier, has a CountTable, and one sequential pass over the instances adds each instance to the table of the frontier node it reaches. After the pass each frontier node is resolved from its counts alone, into a leaf or into a split whose children form the next frontier.
+ *
+ * For a DataSet in memory the frontier node of every row is kept in an array, so each pass reads the columns in row order instead of jumping around the partitions of a recursive build. OutOfCoreTreeBuilder uses the same frontier with passes over a file.
+ */
+class LevelWiseTreeBuilder
+{
+   private final DataSet header;
+   private final Schema schema;
+   private final DecisionTreeNode root;
+   private final StoppingRules rules;
+   private final SplitCriterion criterion;
+   private int level = 0; // level of the open nodes
+   private List<DecisionTreeNode> nodes = new ArrayList<DecisionTreeNode>(); // open nodes of the current level, by frontier id
+   private List<Frontier> frontier = new ArrayList<Frontier>(); // their counts, by frontier id
+   private final Map<DecisionTreeNode, Integer> ids = new IdentityHashMap<DecisionTreeNode, Integer>();
+
+   /**
+    * Counts gathered for one open node during a pass.
+    */
+   private class Frontier
+   {
+      final String defaultClassification; // plurality of the parent
+      final long[] used; // bitmask of the attributes used above the node
+      final CountTable table; // counts of the attributes not in used
+
+      Frontier(String defaultClassification, long[] used)
+      {
+         this.defaultClassification = defaultClassification;
+         this.used = used;
+         table = new CountTable(schema, used);
+      }
+   }
+
+   /**
+    * Start with the root as the only open node.
+    *
+    * @param header
+    *           a data set with the labels and attributes of the instances
+    * @param rules
+    * @param criterion
+    */
+   LevelWiseTreeBuilder(DataSet header, StoppingRules rules, SplitCriterion criterion)
+   {
+      this.header = header;
+      this.rules = rules;
+      this.criterion = criterion;
+      this.schema = header.buildSchema();
+      root = new DecisionTreeNode(null, null, null, true);
+      open(root, new Frontier(null, new long[(header.attributes.size() + 63) >> 6]));
+   }
+
+   /**
+    * Grow a tree over every instance of a data set in memory, with one pass over the instances per level.
+    *
+    * @param set
+    * @param rules
+    * @param criterion
+    * @return the root of the tree
+    */
+   static DecisionTreeNode grow(DataSet set, StoppingRules rules, SplitCriterion criterion)
+   {
+      LevelWiseTreeBuilder builder = new LevelWiseTreeBuilder(set, rules, criterion);
+      int[] nodeOf = new int[set.size]; // frontier id of each row, -1 once its node is finished
+      int[] firstChild = null; // frontier id of the first child of each node of the last level, -1 for leaves
+      List<DecisionTreeNode> last = null;
+
+      while (!builder.isDone())
+      {
+         for (int row = 0; row < set.size; row++)
+         {
+            int id = nodeOf[row];
+            if (id < 0)
+            {
+               continue;
+            }
+
+            if (firstChild != null) // move the row from its node on the last level down to a child
+            {
+               id = firstChild[id] < 0 ? -1 : firstChild[id] + set.value(row, last.get(id).attributeIndex);
+               nodeOf[row] = id;
+               if (id < 0)
+               {
+                  continue;
+               }
+            }
+
+            builder.add(id, set, row);
+         }
+
+         last = builder.nodes;
+         firstChild = builder.resolve();
+      }
+
+      return builder.root;
+   }
+
+   /**
+    * @return the frontier id of an open node, or -1 if the node is finished
+    */
+   int id(DecisionTreeNode node)
+   {
+      Integer id = ids.get(node);
+      return id == null ? -1 : id;
+   }
+
+   /**
+    * Count the instance at a row of a data set for an open node.
+    */
+   void add(int id, DataSet set, int row)
+   {
+      frontier.get(id).table.add(set, row);
+   }
+
+   /**
+    * @return whether no node is left open
+    */
+   boolean isDone()
+   {
+      return nodes.isEmpty();
+   }
+
+   DecisionTreeNode root()
+   {
+      return root;
+   }
+
+   /**
+    * Turn every open node into a leaf or a split, following the rules of DecisionTree.buildDecisionTree. The children of a split are the next frontier, given consecutive ids in value order.
+    *
+    * @return for each id of the resolved level, the id of its first child, or -1 if it became a leaf
+    */
+   int[] resolve()
+   {
+      List<DecisionTreeNode> nextNodes = new ArrayList<DecisionTreeNode>();
+      List<Frontier> next = new ArrayList<Frontier>();
+      int[] firstChild = new int[nodes.size()];
+
+      ids.clear();
+      for (int id = 0; id < nodes.size(); id++)
+      {
+         DecisionTreeNode node = nodes.get(id);
+         Frontier open = frontier.get(id);
+         String plurality = header.labels.get(open.table.plurality());
+         firstChild[id] = -1;
+
+         if (open.table.size == 0) // no more examples
+         {
+            node.label = open.defaultClassification != null ? open.defaultClassification : plurality;
+            continue;
+         }
+         else if (open.table.sameClassification()) // same classification
+         {
+            node.label = plurality;
+            continue;
+         }
+
+         node.label = plurality;
+         if (!rules.allowsSplit(level, open.table.size)) // stopped early
+         {
+            continue;
+         }
+
+         int best = open.table.bestAttribute(criterion, null, rules);
+         if (best < 0) // no more attributes, or none satisfies the rules
+         {
+            continue;
+         }
+
+         String attribute = header.attributes.get(best);
+         List<String> values = header.attributeValues.get(attribute);
+         long[] used = open.used.clone();
+         used[best >> 6] |= 1L << best;
+
+         node.terminal = false;
+         node.attribute = attribute;
+         node.attributeIndex = best;
+         node.children = new ArrayList<DecisionTreeNode>();
+         firstChild[id] = nextNodes.size();
+
+         for (int v = 0; v < values.size(); v++)
+         {
+            DecisionTreeNode child = new DecisionTreeNode(null, null, values.get(v), true);
+            node.addChild(child);
+            ids.put(child, nextNodes.size());
+            nextNodes.add(child);
+            next.add(new Frontier(plurality, used));
+         }
+      }
+
+      nodes = nextNodes;
+      frontier = next;
+      level++;
+
+      return firstChild;
+   }
+
+   private void open(DecisionTreeNode node, Frontier counts)
+   {
+      ids.put(node, nodes.size());
+      nodes.add(node);
+      frontier.add(counts);
+   }
+}
@@ -0,0 +1,101 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             OffHeapColumnStore.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Columns kept in direct ByteBuffers outside the Java heap, two bytes per code. Large data sets then add little to the heap and nothing to the garbage collector's work; read-only views share the same columns, so they also see the columns the store grows into.
+ */
+class OffHeapColumnStore extends ColumnStore
+{
+   static final int MAX_CAPACITY = Integer.MAX_VALUE >> 1; // most instances a column of two byte codes in one ByteBuffer holds
+
+   private final ByteBuffer[] columns;
+   private final boolean readOnly;
+
+   OffHeapColumnStore(int columns, int capacity)
+   {
+      this(new ByteBuffer[columns], false);
+      for (int i = 0; i < columns; i++)
+      {
+         this.columns[i] = allocate(capacity);
+      }
+   }
+
+   private OffHeapColumnStore(ByteBuffer[] columns, boolean readOnly)
+   {
+      this.columns = columns;
+      this.readOnly = readOnly;
+   }
+
+   private static ByteBuffer allocate(int capacity)
+   {
+      long bytes = capacity * 2L;
+      if (capacity < 0 || bytes > Integer.MAX_VALUE)
+      {
+         throw new IllegalArgumentException("More than " + MAX_CAPACITY + " instances in off-heap columns : " + capacity);
+      }
+
+      return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+   }
+
+   @Override
+   int get(int column, int row)
+   {
+      return columns[column].getShort(row << 1);
+   }
+
+   @Override
+   void set(int column, int row, int code)
+   {
+      if (readOnly)
+      {
+         throw new UnsupportedOperationException("read-only columns");
+      }
+      columns[column].putShort(row << 1, (short) code);
+   }
+
+   @Override
+   int capacity()
+   {
+      return columns.length == 0 ? 0 : columns[0].capacity() >> 1;
+   }
+
+   @Override
+   void grow(int capacity)
+   {
+      if (readOnly)
+      {
+         throw new UnsupportedOperationException("read-only columns");
+      }
+      for (int i = 0; i < columns.length; i++)
+      {
+         ByteBuffer grown = allocate(capacity);
+         ByteBuffer old = columns[i].duplicate();
+         old.clear();
+         grown.put(old);
+         grown.clear();
+         columns[i] = grown;
+      }
+   }
+
+   @Override
+   ColumnStore readOnly()
+   {
+      return new OffHeapColumnStore(columns, true);
+   }
+
+   @Override
+   int columns()
+   {
+      return columns.length;
+   }
+}
@@ -0,0 +1,107 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             OutOfCoreTreeBuilder.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.io.IOException;
+
+/**
+ * Builds the same tree as DecisionTree(DataSet) from a data file that does not fit in memory. The tree is grown by a LevelWiseTreeBuilder, one level per sequential scan of the file: every instance is routed down the finished part of the tree to the open frontier node it reaches, whose CountTable it updates. Memory depends on the size of the frontier, not on the number of instances.
+ */
+public class OutOfCoreTreeBuilder
+{
+   private LevelWiseTreeBuilder levels = null; // created with the first batch
+   private final StoppingRules rules;
+   private final SplitCriterion criterion;
+
+   private OutOfCoreTreeBuilder(StoppingRules rules, SplitCriterion criterion)
+   {
+      this.rules = rules;
+      this.criterion = criterion;
+   }
+
+   /**
+    * Build a decision tree by scanning the training file once per level.
+    *
+    * @param file
+    * @return
+    * @throws IOException
+    */
+   public static DecisionTree build(String file) throws IOException
+   {
+      return build(file, StoppingRules.NONE);
+   }
+
+   /**
+    * Build a decision tree that stops early where the rules say so, scanning the training file once per level.
+    *
+    * @param file
+    * @param rules
+    * @return
+    * @throws IOException
+    */
+   public static DecisionTree build(String file, StoppingRules rules) throws IOException
+   {
+      return build(file, rules, SplitCriterion.ENTROPY);
+   }
+
+   /**
+    * Build a decision tree that stops early where the rules say so and splits by the criterion, scanning the training file once per level.
+    *
+    * @param file
+    * @param rules
+    * @param criterion
+    * @return
+    * @throws IOException
+    */
+   static DecisionTree build(String file, StoppingRules rules, SplitCriterion criterion) throws IOException
+   {
+      OutOfCoreTreeBuilder builder = new OutOfCoreTreeBuilder(rules, criterion);
+      DataSet header = DataSetLoader.stream(file, builder::scan);
+
+      if (builder.levels == null) // no instances at all
+      {
+         return new DecisionTree(header, new DecisionTreeNode(header.labels.get(0), null, null, true));
+      }
+
+      builder.levels.resolve();
+      while (!builder.levels.isDone())
+      {
+         DataSetLoader.stream(file, builder::scan);
+         builder.levels.resolve();
+      }
+
+      return new DecisionTree(header, builder.levels.root());
+   }
+
+   /**
+    * Add a batch of instances to the counts of the frontier nodes they reach.
+    */
+   private void scan(DataSet batch)
+   {
+      if (levels == null)
+      {
+         levels = new LevelWiseTreeBuilder(batch.emptyCopy(), rules, criterion);
+      }
+
+      for (int row = 0; row < batch.size; row++)
+      {
+         DecisionTreeNode node = levels.root();
+         while (!node.terminal)
+         {
+            node = node.children.get(batch.value(row, node.attributeIndex));
+         }
+
+         int id = levels.id(node);
+         if (id >= 0) // skip finished leaves
+         {
+            levels.add(id, batch, row);
+         }
+      }
+   }
+}
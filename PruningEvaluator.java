@@ -0,0 +1,153 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             PruningEvaluator.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accuracy of a tree on a data set while the pruning heuristics make its nodes terminal and back. Every instance is routed once down the whole tree, past terminal nodes that still have children, and each node counts the instances reaching it that its own label classifies correctly. Each node also keeps how many of them its children classify correctly as the tree stands, so making a node terminal or not only changes the counts on the path up to its nearest terminal ancestor, or to the root, instead of classifying the data set again.
+ *
+ * The tree's nodes must only be made terminal or not through setTerminal while it is evaluated.
+ */
+class PruningEvaluator
+{
+   private final DataSet set;
+   private final List<DecisionTreeNode> nodes = new ArrayList<DecisionTreeNode>(); // every node, breadth first
+   private final Map<DecisionTreeNode, Integer> ids = new IdentityHashMap<DecisionTreeNode, Integer>(); // position of each node in nodes
+   private final int[] parent; // id of the parent of each node, -1 for the root
+   private final int[] leafCorrect; // instances reaching the node that its label classifies correctly
+   private final int[] childrenCorrect; // instances reaching the node that the subtrees of its children classify correctly
+   private int correct = 0; // instances the tree classifies correctly
+
+   /**
+    * @param set
+    *           the data set accuracy is measured on
+    * @param root
+    *           root of the tree to evaluate
+    */
+   PruningEvaluator(DataSet set, DecisionTreeNode root)
+   {
+      this.set = set;
+
+      // number the nodes breadth first, so the children of a node have consecutive ids
+      List<Integer> parents = new ArrayList<Integer>();
+      nodes.add(root);
+      parents.add(-1);
+
+      for (int id = 0; id < nodes.size(); id++)
+      {
+         DecisionTreeNode node = nodes.get(id);
+         ids.put(node, id);
+
+         if (node.children != null)
+         {
+            for (DecisionTreeNode child : node.children)
+            {
+               nodes.add(child);
+               parents.add(id);
+            }
+         }
+      }
+
+      parent = new int[nodes.size()];
+      leafCorrect = new int[nodes.size()];
+      childrenCorrect = new int[nodes.size()];
+      int[] firstChild = new int[nodes.size()]; // -1 for nodes without children
+      int[] labels = new int[nodes.size()];
+
+      for (int id = 0; id < nodes.size(); id++)
+      {
+         parent[id] = parents.get(id);
+         firstChild[id] = -1;
+         if (id > 0 && firstChild[parent[id]] < 0)
+         {
+            firstChild[parent[id]] = id;
+         }
+         labels[id] = set.labels.indexOf(nodes.get(id).label);
+      }
+
+      for (int row = 0; row < set.size; row++)
+      {
+         int label = set.label(row);
+         int id = 0;
+
+         while (true)
+         {
+            if (labels[id] == label)
+            {
+               leafCorrect[id]++;
+            }
+
+            if (firstChild[id] < 0)
+            {
+               break;
+            }
+            id = firstChild[id] + set.value(row, nodes.get(id).attributeIndex);
+         }
+      }
+
+      // children come after their parents, so each subtree is summed before it is added to its parent
+      for (int id = nodes.size() - 1; id > 0; id--)
+      {
+         childrenCorrect[parent[id]] += subtreeCorrect(id);
+      }
+
+      correct = subtreeCorrect(0);
+   }
+
+   /**
+    * @return the accuracy of the tree as it stands, the same value DecisionTree.accuracy gives
+    */
+   double accuracy()
+   {
+      return (double) correct / set.size;
+   }
+
+   /**
+    * Make a node of the tree terminal or not and update the accuracy. A node without children always stays terminal.
+    *
+    * @param node
+    * @param terminal
+    */
+   void setTerminal(DecisionTreeNode node, boolean terminal)
+   {
+      if (node.terminal == terminal || node.children == null || node.children.isEmpty())
+      {
+         return;
+      }
+
+      int id = ids.get(node);
+      int before = subtreeCorrect(id);
+      node.terminal = terminal;
+      int delta = subtreeCorrect(id) - before;
+
+      // the change reaches the root unless a terminal ancestor hides it
+      for (int p = parent[id]; p >= 0; p = parent[p])
+      {
+         childrenCorrect[p] += delta;
+         if (nodes.get(p).terminal)
+         {
+            return;
+         }
+      }
+
+      correct += delta;
+   }
+
+   /**
+    * @return the instances reaching a node that its subtree classifies correctly as the tree stands
+    */
+   private int subtreeCorrect(int id)
+   {
+      return nodes.get(id).terminal ? leafCorrect[id] : childrenCorrect[id];
+   }
+}
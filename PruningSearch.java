@@ -0,0 +1,48 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             PruningSearch.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+/**
+ * Settings of the stochastic search that starts the pruning of a DecisionTree, randomPrune and randomPrune2 tried on their own copy of the grown tree once per restart. A restart considers the nodes in a random order, and the restarts run in parallel with the other pruning heuristics. Each restart gets its own random generator split off from the seed up front, so a seed gives the same pruned tree on any number of threads as long as the time limit doesn't cut the search short.
+ *
+ * With a positive temperature a restart anneals: it also keeps a change that makes the tree less accurate, by a loss l, with probability exp(-l / t), where t falls linearly from the temperature to 0 over the pass. DEFAULT is the three greedy restarts the trees have always used, now seeded.
+ */
+public final class PruningSearch
+{
+   public static final long DEFAULT_SEED = 540;
+   public static final PruningSearch DEFAULT = new PruningSearch(3, DEFAULT_SEED, 0, 0);
+
+   public final int restarts; // passes of each of randomPrune and randomPrune2
+   public final long seed;
+   public final double temperature; // starting temperature, in accuracy, 0 for a greedy search
+   public final long millis; // wall-clock time allowed for the search, 0 for no limit
+   final TrainingBudget time; // millis as a budget without a node limit, which gives the search its deadline
+
+   /**
+    * @param restarts
+    * @param seed
+    * @param temperature
+    *           starting temperature, 0 for a greedy search
+    * @param millis
+    *           wall-clock time allowed, 0 for no limit
+    */
+   public PruningSearch(int restarts, long seed, double temperature, long millis)
+   {
+      if (restarts < 0 || !(temperature >= 0) || millis < 0)
+      {
+         throw new IllegalArgumentException("A pruning search needs non-negative restarts, temperature and time");
+      }
+
+      this.restarts = restarts;
+      this.seed = seed;
+      this.temperature = temperature;
+      this.millis = millis;
+      this.time = new TrainingBudget(millis, Integer.MAX_VALUE);
+   }
+}
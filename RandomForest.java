@@ -0,0 +1,181 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             RandomForest.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Ensemble of decision trees (Breiman, "Random Forests"). Each tree is grown on a bootstrap sample of the training set, choosing every split among a random sample of the remaining attributes, and the forest classifies an instance by majority vote. Trees are built on the pool of the tree settings, one task per tree, each with its own random generator split off from the seed up front, so a seed gives the same forest on any number of threads.
+ */
+public class RandomForest
+{
+   static final int DEFAULT_TREES = 100;
+   static final long DEFAULT_SEED = 540;
+
+   private final List<DecisionTree> trees = new ArrayList<DecisionTree>();
+   private final Schema schema;
+
+   /**
+    * Grow a forest with the default number of attributes per split, the square root of the number of attributes.
+    *
+    * @param trainSet
+    * @param treeCount
+    * @param seed
+    * @param rules
+    *           limits on how far each tree is grown
+    */
+   RandomForest(DataSet trainSet, int treeCount, long seed, StoppingRules rules)
+   {
+      this(trainSet, treeCount, seed, rules, defaultSampleSize(trainSet));
+   }
+
+   /**
+    * @param trainSet
+    * @param treeCount
+    * @param seed
+    * @param rules
+    *           limits on how far each tree is grown
+    * @param sampleSize
+    *           number of attributes sampled for each split
+    */
+   RandomForest(DataSet trainSet, int treeCount, long seed, StoppingRules rules, int sampleSize)
+   {
+      this(trainSet, treeCount, seed, rules, sampleSize, TreeSettings.DEFAULT);
+   }
+
+   /**
+    * @param trainSet
+    * @param treeCount
+    * @param seed
+    * @param rules
+    *           limits on how far each tree is grown
+    * @param sampleSize
+    *           number of attributes sampled for each split
+    * @param settings
+    *           split criterion of the trees and pool they are built on
+    */
+   RandomForest(DataSet trainSet, int treeCount, long seed, StoppingRules rules, int sampleSize, TreeSettings settings)
+   {
+      if (treeCount < 1 || sampleSize < 1)
+      {
+         throw new IllegalArgumentException("A forest needs at least one tree and one attribute per split");
+      }
+
+      DataSet sample = trainSet.readOnly();
+      SplittableRandom random = new SplittableRandom(seed);
+      List<Callable<DecisionTree>> tasks = new ArrayList<Callable<DecisionTree>>();
+
+      schema = sample.buildSchema();
+      for (int t = 0; t < treeCount; t++)
+      {
+         SplittableRandom treeRandom = random.split();
+         tasks.add(() -> new DecisionTree(sample, bootstrap(sample.size, treeRandom), rules, sampleSize, treeRandom, settings));
+      }
+
+      ForkJoinPool pool = settings.pool; // trees are built serially within their own task
+      try
+      {
+         if (pool == null)
+         {
+            for (Callable<DecisionTree> task : tasks)
+            {
+               trees.add(task.call());
+            }
+         }
+         else
+         {
+            for (Future<DecisionTree> tree : pool.invokeAll(tasks))
+            {
+               trees.add(tree.get());
+            }
+         }
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Failed to grow a tree of the forest", e.getCause());
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Failed to grow a tree of the forest", e);
+      }
+   }
+
+   /**
+    * @return the square root of the number of attributes, at least 1
+    */
+   static int defaultSampleSize(DataSet trainSet)
+   {
+      return (int) Math.max(1, Math.round(Math.sqrt(trainSet.attributes.size())));
+   }
+
+   /**
+    * Draw size rows with replacement.
+    */
+   private static int[] bootstrap(int size, SplittableRandom random)
+   {
+      int[] rows = new int[size];
+      for (int i = 0; i < size; i++)
+      {
+         rows[i] = random.nextInt(size);
+      }
+
+      return rows;
+   }
+
+   /**
+    * Classify an instance by majority vote of the trees, the first label on ties.
+    *
+    * @param instance
+    * @return the label
+    */
+   public String classify(Instance instance)
+   {
+      int[] votes = new int[schema.labels.size()];
+      for (DecisionTree tree : trees)
+      {
+         votes[schema.labelCode(tree.classify(instance))]++;
+      }
+
+      int max = 0;
+      for (int i = 1; i < votes.length; i++)
+      {
+         if (votes[i] > votes[max])
+         {
+            max = i;
+         }
+      }
+
+      return schema.labels.get(max);
+   }
+
+   /**
+    * Print the accuracy of the forest on a test set.
+    *
+    * @param test
+    */
+   public void printAccuracy(DataSet test)
+   {
+      double count = 0;
+      for (Instance instance : test.instances)
+      {
+         if (classify(instance).equals(test.labels.get(instance.label)))
+         {
+            count++;
+         }
+      }
+
+      System.out.format("%.5f", count / test.size);
+   }
+}
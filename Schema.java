@@ -0,0 +1,269 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             Schema.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable labels and attributes of a data file, built once from its "%%" and "##" lines. Values are mapped to their codes through hash tables, both from Strings and from raw bytes of a mapped file, and a fingerprint over every name and value is computed up front. Schemas are interned, so every DataSet read with the same header shares one instance and two DataSets are compatible when their schemas are the same object.
+ */
+public final class Schema
+{
+   private static final Map<Schema, Schema> INTERNED = new ConcurrentHashMap<Schema, Schema>();
+   static final int MAX_VALUES = Short.MAX_VALUE; // most labels or values of an attribute, as codes are stored in 16 bits
+
+   public final List<String> labels; // ordered list of class labels
+   public final List<String> attributes; // ordered list of attributes
+   public final Map<String, List<String>> attributeValues; // map to ordered discrete values taken by attributes
+   public final long fingerprint; // hash of every label, attribute and value in order
+
+   private final Map<String, Integer> labelCodes;
+   private final List<Map<String, Integer>> valueCodes; // one map per attribute
+   private final ByteCodes labelBytes;
+   private final ByteCodes[] valueBytes; // one table per attribute
+
+   private Schema(List<String> labels, List<String> attributes, Map<String, List<String>> attributeValues)
+   {
+      List<String> attributeList = new ArrayList<String>(attributes);
+      Map<String, List<String>> valueMap = new LinkedHashMap<String, List<String>>();
+
+      if (labels.size() > MAX_VALUES)
+      {
+         throw new IllegalArgumentException("More than " + MAX_VALUES + " labels : " + labels.size());
+      }
+      for (String attribute : attributeList)
+      {
+         if (attributeValues.get(attribute).size() > MAX_VALUES)
+         {
+            throw new IllegalArgumentException("More than " + MAX_VALUES + " values of attribute " + attribute + " : " + attributeValues.get(attribute).size());
+         }
+      }
+
+      this.labels = Collections.unmodifiableList(new ArrayList<String>(labels));
+      this.attributes = Collections.unmodifiableList(attributeList);
+      this.labelCodes = codes(this.labels);
+      this.labelBytes = new ByteCodes(this.labels);
+      this.valueCodes = new ArrayList<Map<String, Integer>>(attributeList.size());
+      this.valueBytes = new ByteCodes[attributeList.size()];
+
+      long hash = fnv(0xcbf29ce484222325L, this.labels);
+      for (int i = 0; i < attributeList.size(); i++)
+      {
+         List<String> values = Collections.unmodifiableList(new ArrayList<String>(attributeValues.get(attributeList.get(i))));
+         valueMap.put(attributeList.get(i), values);
+         valueCodes.add(codes(values));
+         valueBytes[i] = new ByteCodes(values);
+         hash = fnv(fnv(hash, Collections.singletonList(attributeList.get(i))), values);
+      }
+
+      this.attributeValues = Collections.unmodifiableMap(valueMap);
+      this.fingerprint = hash;
+   }
+
+   /**
+    * The shared schema for the given labels and attributes.
+    */
+   public static Schema of(List<String> labels, List<String> attributes, Map<String, List<String>> attributeValues)
+   {
+      Schema schema = new Schema(labels, attributes, attributeValues);
+      Schema shared = INTERNED.putIfAbsent(schema, schema);
+
+      return shared == null ? schema : shared;
+   }
+
+   /**
+    * Verifies that two schemas use the same labels and attributes in the same order. Interned schemas are compared by identity.
+    */
+   public boolean isCompatible(Schema other)
+   {
+      return this == other || (other != null && fingerprint == other.fingerprint && equals(other));
+   }
+
+   /**
+    * @return the code of a label, or -1 if it is not declared
+    */
+   public int labelCode(String label)
+   {
+      Integer code = labelCodes.get(label);
+      return code == null ? -1 : code;
+   }
+
+   /**
+    * @return the code of a value of the attribute at index attribute, or -1 if it is not declared
+    */
+   public int valueCode(int attribute, String value)
+   {
+      Integer code = valueCodes.get(attribute).get(value);
+      return code == null ? -1 : code;
+   }
+
+   /**
+    * @return the code of the label encoded in buffer[start, end), or -1 if it is not declared
+    */
+   public int labelCode(ByteBuffer buffer, int start, int end)
+   {
+      return labelBytes.find(buffer, start, end);
+   }
+
+   /**
+    * @return the code of the value encoded in buffer[start, end), or -1 if it is not declared
+    */
+   public int valueCode(int attribute, ByteBuffer buffer, int start, int end)
+   {
+      return valueBytes[attribute].find(buffer, start, end);
+   }
+
+   /**
+    * @return the number of values of the attribute at index attribute
+    */
+   public int valueCount(int attribute)
+   {
+      return valueCodes.get(attribute).size();
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o)
+      {
+         return true;
+      }
+      if (!(o instanceof Schema))
+      {
+         return false;
+      }
+
+      Schema other = (Schema) o;
+      return fingerprint == other.fingerprint && labels.equals(other.labels) && attributes.equals(other.attributes) && attributeValues.equals(other.attributeValues);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return Long.hashCode(fingerprint);
+   }
+
+   /**
+    * Map each string to its position, keeping the first position of repeated strings.
+    */
+   private static Map<String, Integer> codes(List<String> strings)
+   {
+      Map<String, Integer> codes = new HashMap<String, Integer>();
+      for (int i = strings.size() - 1; i >= 0; i--)
+      {
+         codes.put(strings.get(i), i);
+      }
+
+      return codes;
+   }
+
+   /**
+    * Extend a 64 bit FNV-1a hash with a list of strings, each one terminated.
+    */
+   private static long fnv(long hash, List<String> strings)
+   {
+      for (String string : strings)
+      {
+         for (int i = 0; i < string.length(); i++)
+         {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+         }
+         hash = (hash ^ 0xffff) * 0x100000001b3L;
+      }
+
+      return (hash ^ 0xfffe) * 0x100000001b3L;
+   }
+
+   /**
+    * Open addressing table from the UTF-8 bytes of a value to its code.
+    */
+   private static final class ByteCodes
+   {
+      private final byte[][] keys;
+      private final short[] codes;
+      private final int mask;
+
+      ByteCodes(List<String> values)
+      {
+         int capacity = Integer.highestOneBit(Math.max(1, values.size()) * 2) * 2;
+         keys = new byte[capacity][];
+         codes = new short[capacity];
+         mask = capacity - 1;
+
+         for (int code = 0; code < values.size(); code++)
+         {
+            byte[] key = values.get(code).getBytes(StandardCharsets.UTF_8);
+            int slot = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+
+            while (keys[slot] != null && !matches(keys[slot], ByteBuffer.wrap(key), 0, key.length))
+            {
+               slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == null) // repeated values keep their first code
+            {
+               keys[slot] = key;
+               codes[slot] = (short) code;
+            }
+         }
+      }
+
+      int find(ByteBuffer buffer, int start, int end)
+      {
+         int slot = hash(buffer, start, end) & mask;
+
+         while (keys[slot] != null)
+         {
+            if (matches(keys[slot], buffer, start, end))
+            {
+               return codes[slot];
+            }
+            slot = (slot + 1) & mask;
+         }
+
+         return -1;
+      }
+
+      private static int hash(ByteBuffer buffer, int start, int end)
+      {
+         int h = 0;
+         for (int i = start; i < end; i++)
+         {
+            h = 31 * h + buffer.get(i);
+         }
+
+         return h ^ (h >>> 16);
+      }
+
+      private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end)
+      {
+         if (key.length != end - start)
+         {
+            return false;
+         }
+
+         for (int i = 0; i < key.length; i++)
+         {
+            if (key[i] != buffer.get(start + i))
+            {
+               return false;
+            }
+         }
+
+         return true;
+      }
+   }
+}
@@ -0,0 +1,143 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             SplitCriterion.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+/**
+ * Scores the split of a node on an attribute from the node's CountTable; the attribute with the highest score is split on. ENTROPY is the information gain the trees have always used, GINI is the decrease in Gini impurity and needs no logarithms, and GAIN_RATIO is the information gain divided by the entropy of the attribute's values (Quinlan, "C4.5").
+ */
+interface SplitCriterion
+{
+   SplitCriterion ENTROPY = new Entropy();
+   SplitCriterion GINI = new Gini();
+   SplitCriterion GAIN_RATIO = new GainRatio();
+
+   /**
+    * Impurity of the labels of all the instances of a table, computed once per node.
+    */
+   double impurity(CountTable table);
+
+   /**
+    * Score of splitting the instances of a table on an attribute it counts.
+    *
+    * @param table
+    * @param attribute
+    * @param impurity
+    *           impurity(table)
+    * @return
+    */
+   double score(CountTable table, int attribute, double impurity);
+
+   /**
+    * @return the criterion called entropy, gini or gain-ratio
+    */
+   static SplitCriterion named(String name)
+   {
+      switch (name)
+      {
+         case "entropy":
+            return ENTROPY;
+         case "gini":
+            return GINI;
+         case "gain-ratio":
+            return GAIN_RATIO;
+         default:
+            throw new IllegalArgumentException("Unknown split criterion : " + name);
+      }
+   }
+
+   final class Entropy implements SplitCriterion
+   {
+      @Override
+      public double impurity(CountTable table)
+      {
+         return table.classEntropy();
+      }
+
+      @Override
+      public double score(CountTable table, int attribute, double impurity)
+      {
+         return table.infoGain(attribute, impurity);
+      }
+   }
+
+   final class Gini implements SplitCriterion
+   {
+      @Override
+      public double impurity(CountTable table)
+      {
+         long squares = 0;
+         for (int k = 0; k < table.labels; k++)
+         {
+            squares += (long) table.labelCounts[k] * table.labelCounts[k];
+         }
+
+         return 1 - (double) squares / ((double) table.size * table.size);
+      }
+
+      @Override
+      public double score(CountTable table, int attribute, double impurity)
+      {
+         // the children's impurity weighted by size is sum over values of (n - squares / n) / size
+         double weighted = 0;
+         int offset = table.offsets[attribute];
+
+         for (int j = 0; j < table.valueCounts[attribute]; j++, offset += table.labels)
+         {
+            long sum = 0, squares = 0;
+            for (int k = 0; k < table.labels; k++)
+            {
+               long count = table.counts[offset + k];
+               sum += count;
+               squares += count * count;
+            }
+
+            if (sum > 0)
+            {
+               weighted += sum - (double) squares / sum;
+            }
+         }
+
+         return impurity - weighted / table.size;
+      }
+   }
+
+   final class GainRatio implements SplitCriterion
+   {
+      @Override
+      public double impurity(CountTable table)
+      {
+         return table.classEntropy();
+      }
+
+      @Override
+      public double score(CountTable table, int attribute, double impurity)
+      {
+         double splitInformation = 0;
+         int offset = table.offsets[attribute];
+
+         for (int j = 0; j < table.valueCounts[attribute]; j++, offset += table.labels)
+         {
+            double sum = 0;
+            for (int k = 0; k < table.labels; k++)
+            {
+               sum += table.counts[offset + k];
+            }
+
+            double p = sum / table.size;
+            if (p > 0)
+            {
+               splitInformation -= p * Math.log(p);
+            }
+         }
+
+         // an attribute whose instances all take one value separates nothing
+         return splitInformation > 0 ? table.infoGain(attribute, impurity) / (splitInformation / Math.log(2)) : 0;
+      }
+   }
+}
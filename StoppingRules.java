@@ -0,0 +1,49 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             StoppingRules.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+/**
+ * Pre-pruning limits on how far a decision tree is grown. A node that would break one of them becomes a leaf labeled with the plurality of its instances instead of being split. NONE grows the full tree.
+ */
+public final class StoppingRules
+{
+   public static final StoppingRules NONE = new StoppingRules(Integer.MAX_VALUE, 0, 0, Double.NEGATIVE_INFINITY);
+
+   public final int maxDepth; // deepest level that may be split, the root being level 0, is maxDepth - 1
+   public final int minSplit; // fewest instances a node needs to be split
+   public final int minLeaf; // fewest instances each child that gets any instances must get
+   public final double minGain; // smallest score, information gain by default, worth a split
+
+   /**
+    * @param maxDepth
+    * @param minSplit
+    * @param minLeaf
+    * @param minGain
+    */
+   public StoppingRules(int maxDepth, int minSplit, int minLeaf, double minGain)
+   {
+      if (maxDepth < 0 || minSplit < 0 || minLeaf < 0)
+      {
+         throw new IllegalArgumentException("Stopping rules can't be negative");
+      }
+
+      this.maxDepth = maxDepth;
+      this.minSplit = minSplit;
+      this.minLeaf = minLeaf;
+      this.minGain = minGain;
+   }
+
+   /**
+    * @return whether a node at a level with a number of instances may be split at all
+    */
+   boolean allowsSplit(int level, int size)
+   {
+      return level < maxDepth && size >= minSplit;
+   }
+}
@@ -0,0 +1,61 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             TrainingBudget.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+/**
+ * Limits on the resources spent training a DecisionTree: wall-clock time for the whole construction, including pruning, and the number of nodes of each tree grown. A tree under a budget is grown best-gain-first, so whatever it has when the budget runs out holds its most useful splits. UNLIMITED grows the full tree.
+ */
+public final class TrainingBudget
+{
+   public static final TrainingBudget UNLIMITED = new TrainingBudget(0, Integer.MAX_VALUE);
+
+   public final long millis; // wall-clock time allowed, 0 for no limit
+   public final int maxNodes; // most nodes in a tree, at least 1
+
+   /**
+    * @param millis
+    *           wall-clock time allowed, 0 for no limit
+    * @param maxNodes
+    *           most nodes in a tree
+    */
+   public TrainingBudget(long millis, int maxNodes)
+   {
+      if (millis < 0 || maxNodes < 1)
+      {
+         throw new IllegalArgumentException("A training budget needs a non-negative time and at least one node");
+      }
+
+      this.millis = millis;
+      this.maxNodes = maxNodes;
+   }
+
+   /**
+    * @return whether this budget limits anything
+    */
+   boolean isLimited()
+   {
+      return millis > 0 || maxNodes < Integer.MAX_VALUE;
+   }
+
+   /**
+    * @return the System.nanoTime() at which time runs out for a training started now, meaningful only when millis is positive
+    */
+   long deadline()
+   {
+      return System.nanoTime() + millis * 1000000L;
+   }
+
+   /**
+    * @return whether time has run out for a training with the given deadline
+    */
+   boolean isOver(long deadline)
+   {
+      return millis > 0 && System.nanoTime() - deadline >= 0;
+   }
+}
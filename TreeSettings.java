@@ -0,0 +1,51 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             TreeSettings.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * How a DecisionTree is grown and pruned, fixed when it is built: the split criterion, whether it is grown a level at a time, the pool it is built on, and how a tree given a tuning set is pruned. A tree keeps its settings, so trees built with different settings can live side by side. DEFAULT grows by information gain, recursively on the common pool, and prunes with the heuristics.
+ */
+final class TreeSettings
+{
+   static final int DEFAULT_FORK_THRESHOLD = 1 << 12;
+   static final TreeSettings DEFAULT = new TreeSettings(SplitCriterion.ENTROPY, false, ForkJoinPool.commonPool(), DEFAULT_FORK_THRESHOLD, false, PruningSearch.DEFAULT);
+
+   final SplitCriterion criterion; // how the attribute to split on is chosen
+   final boolean levelWise; // grow a level at a time with a LevelWiseTreeBuilder instead of recursively
+   final ForkJoinPool pool; // pool split search, subtree building and pruning heuristics run on, null to run serially
+   final int forkThreshold; // fewest instances a subtree needs to be built as its own task
+   final boolean reducedErrorPruning; // prune with one reduced-error pass instead of the heuristics
+   final PruningSearch pruningSearch; // restarts of randomPrune and randomPrune2
+
+   /**
+    * @param criterion
+    * @param levelWise
+    * @param pool
+    *           null to run serially
+    * @param forkThreshold
+    * @param reducedErrorPruning
+    * @param pruningSearch
+    */
+   TreeSettings(SplitCriterion criterion, boolean levelWise, ForkJoinPool pool, int forkThreshold, boolean reducedErrorPruning, PruningSearch pruningSearch)
+   {
+      if (criterion == null || pruningSearch == null || forkThreshold < 0)
+      {
+         throw new IllegalArgumentException("Tree settings need a criterion, a pruning search and a non-negative fork threshold");
+      }
+
+      this.criterion = criterion;
+      this.levelWise = levelWise;
+      this.pool = pool;
+      this.forkThreshold = forkThreshold;
+      this.reducedErrorPruning = reducedErrorPruning;
+      this.pruningSearch = pruningSearch;
+   }
+}
@@ -0,0 +1,270 @@
+
+///////////////////////////////////////////////////////////////////////////////
+//
+// Main Class File:  DecisionTreeBuilder.java
+// File:             TwinPruneScorer.java
+// Semester:         CS540 Artificial Intelligence Summer 2016
+// Author:           David Liang dliang23@wisc.edu
+//
+//////////////////////////////////////////////////////////////////////////////
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accuracy of a tree on a data set if a few of its internal nodes were made terminal at once, for the pair search of twinPrune. The instances are partitioned down the tree once, so the instances reaching each candidate node are a contiguous range of positions, and a bitset over the positions marks the instances the tree classifies correctly as it stands. Each visible candidate, one without a terminal ancestor, keeps its gain: how many more of its instances its own label classifies correctly than the tree does. Candidates made terminal together only count if no other one of them is their ancestor, and their ranges are then disjoint, so scoring a pair is a sum of gains. Only making a visible candidate terminal or not touches the bitset, and only the gains of its ancestors and descendants.
+ *
+ * The candidates' nodes must only be made terminal or not through setTerminal while they are scored.
+ */
+class TwinPruneScorer
+{
+   private final DataSet set;
+   private final List<DecisionTreeNode> nodes; // the candidates, each after its parent
+   private final Map<DecisionTreeNode, Integer> ids = new IdentityHashMap<DecisionTreeNode, Integer>(); // candidate index of each candidate node
+   private final int[] parent; // candidate index of the parent of each candidate, -1 for the first
+   private final int[] order; // candidate indices in preorder
+   private final int[] enter; // position of each candidate in order
+   private final int[] exit; // position in order just past the descendants of each candidate
+   private final int[] from; // instances reaching a candidate are rows[from, to)
+   private final int[] to;
+   private final int[] labelCorrect; // instances reaching the candidate that its label classifies correctly
+   private final int[] gain; // for visible candidates, labelCorrect minus those the tree classifies correctly
+   private final boolean[] visible; // no ancestor is terminal
+   private final int[] rows; // rows of the data set, partitioned down the candidates
+   private final long[] correct; // bit p set when the tree classifies rows[p] correctly
+   private int correctCount = 0;
+
+   /**
+    * @param set
+    *           the data set accuracy is measured on
+    * @param nodes
+    *           internal nodes of a tree, the root first, the parent of every other one among them before it, and none below a terminal one
+    */
+   TwinPruneScorer(DataSet set, List<DecisionTreeNode> nodes)
+   {
+      this.set = set;
+      this.nodes = nodes;
+      int n = nodes.size();
+      parent = new int[n];
+      order = new int[n];
+      enter = new int[n];
+      exit = new int[n];
+      from = new int[n];
+      to = new int[n];
+      labelCorrect = new int[n];
+      gain = new int[n];
+      visible = new boolean[n];
+      rows = new int[set.size];
+      correct = new long[(set.size + 63) >> 6];
+
+      for (int i = 0; i < rows.length; i++)
+      {
+         rows[i] = i;
+      }
+
+      for (int i = 0; i < n; i++)
+      {
+         ids.put(nodes.get(i), i);
+      }
+
+      parent[0] = -1;
+      from[0] = 0;
+      to[0] = rows.length;
+      int[] position = { 0 };
+      partition(0, position);
+
+      for (int i = 0; i < n; i++)
+      {
+         int label = set.labels.indexOf(nodes.get(i).label);
+         for (int p = from[i]; p < to[i]; p++)
+         {
+            if (set.label(rows[p]) == label)
+            {
+               labelCorrect[i]++;
+            }
+         }
+      }
+
+      classify(0);
+      correctCount = count(0, rows.length);
+      refresh(0);
+   }
+
+   /**
+    * Partition the rows reaching a candidate among its children, and number it and the candidates below it in preorder.
+    */
+   private void partition(int index, int[] position)
+   {
+      enter[index] = position[0];
+      order[position[0]++] = index;
+      DecisionTreeNode node = nodes.get(index);
+
+      if (node.children != null && !node.children.isEmpty())
+      {
+         int[] starts = DecisionTree.partition(set, node.attributeIndex, node.children.size(), rows, from[index], to[index]);
+
+         for (int v = 0; v < node.children.size(); v++)
+         {
+            Integer child = ids.get(node.children.get(v));
+            if (child != null)
+            {
+               parent[child] = index;
+               from[child] = starts[v];
+               to[child] = starts[v + 1];
+               partition(child, position);
+            }
+         }
+      }
+
+      exit[index] = position[0];
+   }
+
+   /**
+    * @return the accuracy of the tree as it stands, the same value DecisionTree.accuracy gives
+    */
+   double accuracy()
+   {
+      return (double) correctCount / set.size;
+   }
+
+   /**
+    * @param selection
+    *           candidate indices, -1 for none, which may repeat
+    * @return the accuracy of the tree if the selected candidates were all terminal
+    */
+   double accuracyIfTerminal(List<Integer> selection)
+   {
+      int count = correctCount;
+
+      for (int s = 0; s < selection.size(); s++)
+      {
+         int i = selection.get(s);
+         if (i < 0 || !visible[i])
+         {
+            continue;
+         }
+
+         // a candidate below another selected one, or selected twice, only counts once, at the top
+         boolean top = true;
+         for (int t = 0; t < selection.size() && top; t++)
+         {
+            int j = selection.get(t);
+            if (j >= 0 && (j == i ? t < s : enter[j] < enter[i] && enter[i] < exit[j]))
+            {
+               top = false;
+            }
+         }
+
+         if (top)
+         {
+            count += gain[i];
+         }
+      }
+
+      return (double) count / set.size;
+   }
+
+   /**
+    * Make a candidate terminal or not and update the counts. A candidate without children always stays terminal.
+    *
+    * @param index
+    * @param terminal
+    */
+   void setTerminal(int index, boolean terminal)
+   {
+      DecisionTreeNode node = nodes.get(index);
+      if (node.terminal == terminal || node.children == null || node.children.isEmpty())
+      {
+         return;
+      }
+
+      node.terminal = terminal;
+      if (!visible[index]) // hidden by a terminal ancestor, along with everything below it
+      {
+         return;
+      }
+
+      correctCount -= count(from[index], to[index]);
+      classify(index);
+      correctCount += count(from[index], to[index]);
+
+      refresh(index);
+      for (int p = parent[index]; p >= 0; p = parent[p])
+      {
+         gain[p] = labelCorrect[p] - count(from[p], to[p]);
+      }
+   }
+
+   /**
+    * Recompute the visibility and gains of a visible candidate and the candidates below it.
+    */
+   private void refresh(int index)
+   {
+      visible[index] = true;
+      gain[index] = labelCorrect[index] - count(from[index], to[index]);
+
+      for (int k = enter[index] + 1; k < exit[index]; k++)
+      {
+         int i = order[k];
+         visible[i] = visible[parent[i]] && !nodes.get(parent[i]).terminal;
+         if (visible[i])
+         {
+            gain[i] = labelCorrect[i] - count(from[i], to[i]);
+         }
+      }
+   }
+
+   /**
+    * Set the bits of the instances reaching a visible candidate to whether the tree classifies them correctly.
+    */
+   private void classify(int index)
+   {
+      for (int p = from[index]; p < to[index]; p++)
+      {
+         int row = rows[p];
+         DecisionTreeNode curr = nodes.get(index);
+         while (!curr.terminal && curr.children != null && !curr.children.isEmpty())
+         {
+            curr = curr.children.get(set.value(row, curr.attributeIndex));
+         }
+
+         // a non-terminal node without children classifies nothing
+         if (curr.terminal && set.labels.get(set.label(row)).equals(curr.label))
+         {
+            correct[p >> 6] |= 1L << p;
+         }
+         else
+         {
+            correct[p >> 6] &= ~(1L << p);
+         }
+      }
+   }
+
+   /**
+    * @return the number of positions in [start, end) the tree classifies correctly
+    */
+   private int count(int start, int end)
+   {
+      if (start >= end)
+      {
+         return 0;
+      }
+
+      int first = start >> 6, last = (end - 1) >> 6;
+      long firstMask = -1L << start, lastMask = -1L >>> (63 - ((end - 1) & 63));
+
+      if (first == last)
+      {
+         return Long.bitCount(correct[first] & firstMask & lastMask);
+      }
+
+      int count = Long.bitCount(correct[first] & firstMask) + Long.bitCount(correct[last] & lastMask);
+      for (int w = first + 1; w < last; w++)
+      {
+         count += Long.bitCount(correct[w]);
+      }
+
+      return count;
+   }
+}